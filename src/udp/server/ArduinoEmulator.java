@@ -0,0 +1,450 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ArduinoEmulator class. plays the Arduino on the device side of a
+ * SerialTransport, so the server can run without the car.
+ *
+ * every frame from the server is answered with a frame holding its request
+ * code and the distance sensor value, after the link latency plus a random
+ * jitter. answers are sent in order, like on the real link. the distance
+ * comes from a scenario:
+ *
+ * physics: the ball starts 30 cm ahead, the car closes in with the motor
+ * speeds while the forward bit is set (backs off with the reverse bit), and
+ * when the servo is out within reach the ball is hit and rolls back to 30 cm.
+ * the sensor reads 4 to 30 cm
+ *
+ * a script "ms:cm,ms:cm,...": the distance at the given times, linear in
+ * between, repeated after the last point. the times must increase
+ *
+ * the properties emulator.latency and emulator.jitter (ms) and
+ * emulator.scenario select the behaviour for create(). main runs a soak test
+ * of the server against the emulator
+ */
+public class ArduinoEmulator {
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final long latency; // ns
+    private final long jitter; // ns
+    private final long[] scriptTime; // ns, null for physics
+    private final int[] scriptDistance; // cm
+
+    // the car, changed by the receive thread, read by the send thread
+    private final double maxSpeed = 60.0; // cm/s at full motor speed
+    private final double minDistance = 4.0; // cm
+    private final double maxDistance = 30.0; // cm
+    private final double reach = 22.0; // cm, the servo hits the ball closer than this
+    private double distance;
+    private byte controls;
+    private byte commands;
+    private int leftSpeed;
+    private int rightSpeed;
+    private long lastMove;
+    private long startTime;
+    private long hits;
+
+    // answers waiting for their time, in order
+    private final int queueSize = 256;
+    private final byte[] queueCode = new byte[queueSize];
+    private final long[] queueDue = new long[queueSize];
+    private int queueHead;
+    private int queueCount;
+    private long lastDue;
+    private final Random random = new Random();
+    private volatile boolean running;
+
+    private final SerialFrameParser parser = new SerialFrameParser(256);
+    private volatile long framesReceived;
+    private volatile long repliesSent;
+    private volatile long repliesDropped;
+
+    /**
+     * create an emulator
+     *
+     * @param in stream of the frames from the server
+     * @param out stream to the server
+     * @param latency time from a frame to its answer, ns
+     * @param jitter max random time added to the latency, ns
+     * @param scenario "physics" or a script, see the class comment
+     * @throws IllegalArgumentException if the script is malformed or its
+     * times do not increase
+     */
+    public ArduinoEmulator(InputStream in, OutputStream out, long latency, long jitter, String scenario) {
+        this.in = in;
+        this.out = out;
+        this.latency = latency;
+        this.jitter = jitter;
+        if (scenario == null || "physics".equals(scenario)) {
+            this.scriptTime = null;
+            this.scriptDistance = null;
+        } else {
+            String[] points = scenario.split(",");
+            this.scriptTime = new long[points.length];
+            this.scriptDistance = new int[points.length];
+            for (int i = 0; i < points.length; i++) {
+                String[] point = points[i].trim().split(":");
+                if (point.length != 2) {
+                    throw new IllegalArgumentException("scenario point " + (i + 1) + " is not ms:cm: " + points[i]);
+                }
+                try {
+                    scriptTime[i] = Long.parseLong(point[0].trim()) * 1000000L;
+                    scriptDistance[i] = Integer.parseInt(point[1].trim());
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("scenario point " + (i + 1) + " is not ms:cm: " + points[i], ex);
+                }
+                if (scriptTime[i] < 0 || (i > 0 && scriptTime[i] <= scriptTime[i - 1])) {
+                    throw new IllegalArgumentException("scenario times must increase from 0 or more: " + points[i]);
+                }
+            }
+        }
+        this.distance = maxDistance;
+    }
+
+    /**
+     * create an emulator set up by the properties emulator.latency (ms,
+     * default 5), emulator.jitter (ms, default 2) and emulator.scenario
+     * (default physics)
+     *
+     * @param in stream of the frames from the server
+     * @param out stream to the server
+     * @return the emulator
+     * @throws IllegalArgumentException if the scenario is malformed
+     */
+    public static ArduinoEmulator create(InputStream in, OutputStream out) {
+        return create(in, out, System.getProperty("emulator.scenario", "physics"));
+    }
+
+    /**
+     * create an emulator with the latency and jitter from the properties and
+     * the given scenario
+     *
+     * @param in stream of the frames from the server
+     * @param out stream to the server
+     * @param scenario "physics" or a script, see the class comment
+     * @return the emulator
+     * @throws IllegalArgumentException if the scenario is malformed
+     */
+    public static ArduinoEmulator create(InputStream in, OutputStream out, String scenario) {
+        long latency = Long.getLong("emulator.latency", 5) * 1000000L;
+        long jitter = Long.getLong("emulator.jitter", 2) * 1000000L;
+        return new ArduinoEmulator(in, out, latency, jitter, scenario);
+    }
+
+    /**
+     * start the receive and send threads
+     */
+    public void start() {
+        running = true;
+        startTime = System.nanoTime();
+        lastMove = startTime;
+        Thread receiver = new Thread(this::receive, "emulator receive");
+        Thread sender = new Thread(this::send, "emulator send");
+        receiver.setDaemon(true);
+        sender.setDaemon(true);
+        receiver.start();
+        sender.start();
+    }
+
+    /**
+     * stop the threads, the streams are not closed
+     */
+    public synchronized void stop() {
+        running = false;
+        this.notifyAll();
+    }
+
+    /*
+    * read frames, apply the commands and queue the answers
+    */
+    private void receive() {
+        byte[] buffer = new byte[64];
+        try {
+            int count;
+            while (running && (count = in.read(buffer, 0, buffer.length)) >= 0) {
+                parser.append(buffer, 0, count);
+                while (parser.next()) {
+                    framesReceived++;
+                    this.command(parser.getPayload(), System.nanoTime());
+                }
+            }
+        } catch (IOException ex) {
+            // the link was closed
+        }
+        this.stop();
+    }
+
+    /*
+    * take the state of the motors and servos from a frame and queue the
+    * answer
+    */
+    private synchronized void command(byte[] payload, long now) {
+        this.move(now);
+        controls = payload[Protocol.CONTROLS.getValue()];
+        commands = payload[Protocol.COMMANDS.getValue()];
+        leftSpeed = payload[Protocol.LEFT_MOTOR_SPEED.getValue()] & 0xFF;
+        rightSpeed = payload[Protocol.RIGHT_MOTOR_SPEED.getValue()] & 0xFF;
+
+        if (queueCount == queueSize) {
+            // the server sends faster than the link answers, drop the oldest
+            queueHead = (queueHead + 1) % queueSize;
+            queueCount--;
+            repliesDropped++;
+        }
+        long delay = latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+        long due = Math.max(lastDue, now + delay);
+        int tail = (queueHead + queueCount) % queueSize;
+        queueCode[tail] = payload[Protocol.REQUEST_FEEDBACK.getValue()];
+        queueDue[tail] = due;
+        queueCount++;
+        lastDue = due;
+        this.notifyAll();
+    }
+
+    /*
+    * move the car up to now, physics scenario only
+    */
+    private void move(long now) {
+        double dt = (now - lastMove) / 1e9;
+        lastMove = now;
+        if (scriptTime != null) {
+            return;
+        }
+        double speed = maxSpeed * (leftSpeed + rightSpeed) / (2 * 255.0);
+        if ((controls & (1 << Protocol.controls.FORWARD.getValue())) != 0) {
+            distance -= speed * dt;
+        } else if ((controls & (1 << Protocol.controls.REVERSE.getValue())) != 0) {
+            distance += speed * dt;
+        }
+        boolean servoOut = (commands & (1 << Protocol.commands.RIGHT_SERVO.getValue())) != 0;
+        if (servoOut && distance <= reach) {
+            hits++;
+            distance = maxDistance;
+        }
+        distance = Math.max(minDistance, Math.min(maxDistance, distance));
+    }
+
+    /*
+    * the sensor value now
+    */
+    private synchronized int readSensor(long now) {
+        if (scriptTime == null) {
+            this.move(now);
+            return (int) Math.round(distance);
+        }
+        long end = scriptTime[scriptTime.length - 1];
+        long t = end > 0 ? (now - startTime) % end : 0;
+        for (int i = 1; i < scriptTime.length; i++) {
+            if (t < scriptTime[i]) {
+                double f = (double) (t - scriptTime[i - 1]) / (scriptTime[i] - scriptTime[i - 1]);
+                return (int) Math.round(scriptDistance[i - 1] + f * (scriptDistance[i] - scriptDistance[i - 1]));
+            }
+        }
+        return scriptDistance[scriptDistance.length - 1];
+    }
+
+    /*
+    * send the queued answers when they are due
+    */
+    private void send() {
+        byte[] reply = new byte[SerialFrame.PAYLOAD_LENGTH];
+        byte[] frame = new byte[SerialFrame.FRAME_LENGTH];
+        try {
+            while (true) {
+                byte code;
+                synchronized (this) {
+                    while (running && queueCount == 0) {
+                        this.wait();
+                    }
+                    if (!running) {
+                        return;
+                    }
+                    code = queueCode[queueHead];
+                    long wait = queueDue[queueHead] - System.nanoTime();
+                    if (wait > 0) {
+                        // a new answer is never due earlier, wake for stop
+                        this.wait(wait / 1000000L, (int) (wait % 1000000L));
+                        continue;
+                    }
+                    queueHead = (queueHead + 1) % queueSize;
+                    queueCount--;
+                }
+                reply[4] = (byte) this.readSensor(System.nanoTime());
+                reply[Protocol.REQUEST_FEEDBACK.getValue()] = code;
+                out.write(frame, 0, SerialFrame.encode(reply, frame));
+                out.flush();
+                repliesSent++;
+            }
+        } catch (InterruptedException ex) {
+            Logger.getLogger(ArduinoEmulator.class.getName()).log(Level.SEVERE, null, ex);
+        } catch (IOException ex) {
+            // the link was closed
+        }
+        this.stop();
+    }
+
+    /**
+     * the distance the sensor reads now, cm
+     *
+     * @return the distance
+     */
+    public int getDistance() {
+        return this.readSensor(System.nanoTime());
+    }
+
+    public long getFramesReceived() {
+        return framesReceived;
+    }
+
+    public long getRepliesSent() {
+        return repliesSent;
+    }
+
+    /**
+     * answers dropped because the queue was full
+     *
+     * @return answers
+     */
+    public long getRepliesDropped() {
+        return repliesDropped;
+    }
+
+    /**
+     * number of times the servo hit the ball, physics scenario
+     *
+     * @return hits
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public SerialFrameParser getParser() {
+        return parser;
+    }
+
+    /**
+     * the servo hits the ball closer than this, physics scenario
+     *
+     * @return the distance, cm
+     */
+    public double getReach() {
+        return reach;
+    }
+
+    /**
+     * soak test: the server's serial path against the emulator on a pipe.
+     * commands are sent at a fixed rate (0 for as fast as possible) and the
+     * counters of both sides printed at the end. the echo round trip is the
+     * one SerialLinkStatistics measures from the written frame, over its last
+     * 10 s.
+     *
+     * usage: ArduinoEmulator [seconds] [rate Hz]. serial.maxrate and
+     * serial.coalesce are 0 unless they are set with -D, so the soak measures
+     * the link and not the limits of the writer
+     *
+     * @param args the arguments
+     * @throws Exception if the link can not be opened
+     */
+    public static void main(String[] args) throws Exception {
+        long duration = (args.length > 0 ? Long.parseLong(args[0]) : 10) * 1000000000L;
+        int rate = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        // read by SerialWriter when it is created
+        if (System.getProperty("serial.maxrate") == null) {
+            System.setProperty("serial.maxrate", "0");
+        }
+        if (System.getProperty("serial.coalesce") == null) {
+            System.setProperty("serial.coalesce", "0");
+        }
+
+        PipeSerialTransport pipe = new PipeSerialTransport();
+        ArduinoEmulator emulator = ArduinoEmulator.create(pipe.getDeviceInputStream(), pipe.getDeviceOutputStream());
+        emulator.start();
+
+        DataHandler dh = new DataHandler();
+        dh.setThreadStatus(true);
+        Semaphore semaphore = new Semaphore(1, true);
+        SerialComArduino sca = new SerialComArduino(dh, pipe);
+        sca.connect("emulator", semaphore);
+
+        // drive forward, the servo goes out in reach like in auto mode
+        byte[] gui = new byte[11];
+        gui[Protocol.SENSITIVITY.getValue()] = 100; // %
+        semaphore.acquire();
+        dh.setDataFromGUI(gui);
+        dh.goFwd();
+        dh.setLeftMotorSpeed(128);
+        dh.setRightMotorSpeed(128);
+        semaphore.release();
+
+        long commands = 0;
+        long echoes = 0;
+        byte lastEcho = 0;
+        long interval = rate > 0 ? 1000000000L / rate : 0;
+        boolean servoOut = false;
+        long start = System.nanoTime();
+        long next = start;
+        long now;
+        while ((now = System.nanoTime()) - start < duration) {
+            semaphore.acquire();
+            if (now >= next) {
+                dh.incrementRequestCode();
+                commands++;
+                next += interval;
+            }
+            byte echoed = dh.getRequestCodeFromArduino();
+            int distance = dh.getDistanceSensor();
+            boolean hit = distance <= emulator.getReach();
+            // only a change is a new command for the writer
+            if (hit != servoOut) {
+                servoOut = hit;
+                if (hit) {
+                    dh.setServoToArduino();
+                } else {
+                    dh.resetServoToArduino();
+                }
+            }
+            semaphore.release();
+
+            if (echoed != lastEcho) {
+                lastEcho = echoed;
+                echoes++;
+            }
+            if (interval > 0) {
+                LockSupport.parkNanos(Math.min(interval, 50000));
+            }
+        }
+        Thread.sleep(100);
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        dh.setThreadStatus(false);
+        emulator.stop();
+        sca.disconnect();
+
+        SerialWriter writer = sca.getSerialWriter();
+        SerialFrameParser serverParser = sca.getSerialReader().getParser();
+        System.out.println(String.format("commands: %d (%.0f/s), frames written: %d, coalesced: %d",
+                commands, commands / seconds, writer.getWrites(), writer.getCoalesced()));
+        System.out.println(String.format("emulator: frames %d, replies %d (%.0f/s), dropped %d, crc failures %d, ball hits %d",
+                emulator.getFramesReceived(), emulator.getRepliesSent(), emulator.getRepliesSent() / seconds,
+                emulator.getRepliesDropped(), emulator.getParser().getCrcFailures(), emulator.getHits()));
+        System.out.println("server: frames " + serverParser.getFrames() + ", crc failures " + serverParser.getCrcFailures()
+                + ", resyncs " + serverParser.getResyncs() + ", echoes seen " + echoes);
+        System.out.println("echo round trip: " + dh.getSerialStatistics().getEchoRoundTrip());
+        System.out.println(dh.getSerialStatistics());
+        System.exit(0);
+    }
+}
@@ -43,6 +43,15 @@ public class AutoModeScheduler extends TimerTask {
     private final Logic logic;
 
     private double xAngle;
+    private final TargetPredictor predictor;
+    private long lastTargetSequence;
+    // the last frame with the target that went into the predictor, 0 if none
+    private long visionCaptureTime;
+    private long visionTargetTime;
+    // time from the scheduler run until the motors react to the command
+    private final long commandLatency = Long.getLong("predictor.latency", 80) * 1000000L; // ns
+    private final long coastTime = Long.getLong("predictor.coast", 300) * 1000000L; // ns
+    private final double maxAngle = 60.0; // half the field of view of the camera
     private final double setpoint = 0.0;
     private double output;
     private double lastOutput;
@@ -84,6 +93,8 @@ public class AutoModeScheduler extends TimerTask {
         this.pid.setOutputFilter(.01);
         //miniPID.setSetpointRange(40);
 
+        this.predictor = new TargetPredictor(500.0, 1.0, coastTime);
+
     }
 
     /**
@@ -96,7 +107,11 @@ public class AutoModeScheduler extends TimerTask {
         boolean pidChanged = false;
 
         acquire();
-        xAngle = (double) dh.getPixyXvalue();
+        double measured = (double) dh.getPixyXvalue();
+        boolean found = dh.isTargetFound();
+        long sequence = dh.getTargetSequence();
+        long captureTime = dh.getTargetCaptureTime();
+        long targetTime = dh.getTargetTime();
 
         // get pid paramters if new values are available
         if (dh.getPidParamChanged()) {
@@ -110,6 +125,7 @@ public class AutoModeScheduler extends TimerTask {
             dh.setPidParamChanged(false);
         }
         release();
+        xAngle = this.predictAngle(measured, found, sequence, captureTime, targetTime);
         state = this.setState(xAngle);
 
         if (pidChanged) {
@@ -132,6 +148,42 @@ public class AutoModeScheduler extends TimerTask {
 
     }
 
+    /**
+     * the angle to the target when the command from this run takes effect.
+     * new frames from the tracker go into the predictor, and while it is
+     * tracking the angle is predicted commandLatency ahead. when the target
+     * has not been seen for coastTime the search sentinel (+-255) is used,
+     * on the side the target was last seen
+     *
+     * @param measured x angle from the tracker, +-255 if not found
+     * @param found true if the tracker found the target
+     * @param sequence frame sequence number from the tracker
+     * @param captureTime capture time of the frame
+     * @param targetTime time the tracker handed the frame to the DataHandler
+     * @return the angle for the PID or the sentinel
+     */
+    private double predictAngle(double measured, boolean found, long sequence, long captureTime, long targetTime) {
+        if (sequence != lastTargetSequence) {
+            lastTargetSequence = sequence;
+            if (found) {
+                predictor.update(measured, captureTime);
+                visionCaptureTime = captureTime;
+                visionTargetTime = targetTime;
+            }
+        }
+
+        long now = System.nanoTime();
+        if (predictor.isTracking(now)) {
+            return limit(predictor.predict(now + commandLatency), -maxAngle, maxAngle);
+        }
+        visionCaptureTime = 0;
+        if (sequence == 0) {
+            // no frames from the tracker yet
+            return measured;
+        }
+        return predictor.getLastCoastedAngle() > 0 ? AUTOMODES.SEARCH_RIGHT.getValue() : AUTOMODES.SEARCH_LEFT.getValue();
+    }
+
     /**
      * acquire the semaphore
      */
@@ -167,9 +219,16 @@ public class AutoModeScheduler extends TimerTask {
 
         //float leftSpeed  = (float) min((speed * Math.abs(1 + outputPidPercent)), 255f);
         //float rightSpeed = (float) min((speed * Math.abs(1 - outputPidPercent)), 255f);
-        System.out.println("*************************************" + "PID OUTPUT: " + output + " SPEEDS, LEFT: " + leftSpeed + " RIGHT: " + rightSpeed);
+        EventLog.log(EventLog.DEBUG, "PID OUTPUT: {f} SPEEDS, LEFT: {f} RIGHT: {f}",
+                EventLog.f(output), EventLog.f(leftSpeed), EventLog.f(rightSpeed));
 
         acquire();
+        dh.setPidOutput(output);
+        // tag the command with the frame it is based on, SerialWriter measures the latency
+        dh.setCommandStamp(visionCaptureTime, System.nanoTime());
+        if (visionCaptureTime != 0) {
+            dh.getLatencyTracer().visionCommand(visionTargetTime);
+        }
         logic.runFWD(leftSpeed, rightSpeed);
         logic.decideToHitBallOrNot(dh.getDistanceSensor());
         dh.incrementRequestCode();
@@ -189,6 +248,7 @@ public class AutoModeScheduler extends TimerTask {
         float rightSpeed = (float) min((speed * Math.abs(1 - percentTurnSpeed)), 255f);
 
         acquire();
+        dh.setCommandStamp(0, System.nanoTime());
         logic.runFWD(leftSpeed, rightSpeed);
         dh.incrementRequestCode();
         release();
@@ -205,6 +265,7 @@ public class AutoModeScheduler extends TimerTask {
         float rightSpeed = (float) min((speed * Math.abs(1 - percentTurnSpeed)), 255f);
 
         acquire();
+        dh.setCommandStamp(0, System.nanoTime());
         logic.runFWD(leftSpeed, rightSpeed);
         dh.incrementRequestCode();
         release();
@@ -245,7 +306,7 @@ public class AutoModeScheduler extends TimerTask {
         } else if (intValue == AUTOMODES.SEARCH_RIGHT.value) {
             result = AUTOMODES.SEARCH_RIGHT;
         }
-        System.out.println("STATE CHANGED " + result);
+        EventLog.log(EventLog.DEBUG, "STATE CHANGED {o}", result);
         return result;
     }
 }
@@ -0,0 +1,295 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.List;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+
+/**
+ * BlobAnalyzer class. turns the contours of the mask into a ranked list of
+ * target candidates.
+ *
+ * every contour is read once. area and centroid come from the polygon
+ * moments (the same as Imgproc.moments), the perimeter from the lengths of
+ * its edges. contours that are too small or not round enough are dropped,
+ * the rest are ranked by confidence:
+ *
+ * confidence = circularity * area / (area + 4 * minArea)
+ *
+ * where circularity is 4 pi area / perimeter^2, 1 for a circle. a candidate
+ * with a Hough circle centre inside it gets houghBoost added (max 1).
+ *
+ * the result is in primitive arrays, index 0 is the best candidate. the
+ * arrays are reused, the result is valid until the next call to analyze.
+ * not thread safe
+ */
+public class BlobAnalyzer {
+
+    private final int capacity;
+    private final double minArea; // pixels in the camera frame
+    private final double minCircularity;
+    private final double houghBoost;
+
+    private final double[] x;
+    private final double[] y;
+    private final double[] radius;
+    private final double[] area;
+    private final double[] circularity;
+    private final double[] confidence;
+    private int count;
+
+    private int[] points;
+    private float[] circleData;
+
+    private long contours;
+    private long tooSmall;
+    private long notRound;
+
+    /**
+     * create an analyzer
+     *
+     * @param capacity max number of candidates kept
+     * @param minArea smallest area of a candidate, in camera frame pixels
+     * @param minCircularity smallest circularity of a candidate, 0 to 1
+     * @param houghBoost confidence added when a Hough circle agrees
+     */
+    public BlobAnalyzer(int capacity, double minArea, double minCircularity, double houghBoost) {
+        this.capacity = capacity;
+        this.minArea = minArea;
+        this.minCircularity = minCircularity;
+        this.houghBoost = houghBoost;
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.radius = new double[capacity];
+        this.area = new double[capacity];
+        this.circularity = new double[capacity];
+        this.confidence = new double[capacity];
+        this.points = new int[2 * 256];
+        this.circleData = new float[3 * 16];
+    }
+
+    /**
+     * analyze the contours of one image. the image may be a window or a
+     * downscaled copy of the camera frame, a point (px, py) in it is
+     * (offsetX + px * scale, offsetY + py * scale) in the camera frame. the
+     * results are in camera frame coordinates
+     *
+     * @param contourList contours from findContours
+     * @param circles circles from HoughCircles on the same image, null to
+     * not use them
+     * @param offsetX left edge of the image in the camera frame
+     * @param offsetY top edge of the image in the camera frame
+     * @param scale size of an image pixel in camera frame pixels
+     * @return number of candidates
+     */
+    public int analyze(List<MatOfPoint> contourList, Mat circles, int offsetX, int offsetY, int scale) {
+        count = 0;
+        int circleCount = circles == null ? 0 : this.readCircles(circles);
+        double areaScale = (double) scale * scale;
+
+        for (int i = 0; i < contourList.size(); i++) {
+            MatOfPoint contour = contourList.get(i);
+            contours++;
+            int n = (int) contour.total();
+            if (n < 3) {
+                tooSmall++;
+                continue;
+            }
+            if (points.length < 2 * n) {
+                points = new int[4 * n];
+            }
+            contour.get(0, 0, points);
+
+            // Green's theorem over the polygon, as OpenCV does for contours,
+            // and the perimeter in the same pass
+            double a00 = 0;
+            double a10 = 0;
+            double a01 = 0;
+            double perimeter = 0;
+            int xPrev = points[2 * n - 2];
+            int yPrev = points[2 * n - 1];
+            for (int j = 0; j < n; j++) {
+                int xi = points[2 * j];
+                int yi = points[2 * j + 1];
+                double dxy = (double) xPrev * yi - (double) xi * yPrev;
+                a00 += dxy;
+                a10 += dxy * (xPrev + xi);
+                a01 += dxy * (yPrev + yi);
+                perimeter += Math.hypot(xi - xPrev, yi - yPrev);
+                xPrev = xi;
+                yPrev = yi;
+            }
+
+            // m00 = a00 / 2, m10 = a10 / 6, m01 = a01 / 6
+            double blobArea = Math.abs(a00) / 2 * areaScale;
+            if (a00 == 0 || blobArea < minArea) {
+                tooSmall++;
+                continue;
+            }
+            double blobCircularity = Math.min(1.0, 4 * Math.PI * Math.abs(a00) / 2 / (perimeter * perimeter));
+            if (blobCircularity < minCircularity) {
+                notRound++;
+                continue;
+            }
+            double cx = a10 / (3 * a00);
+            double cy = a01 / (3 * a00);
+            double blobRadius = Math.sqrt(Math.abs(a00) / 2 / Math.PI);
+
+            double blobConfidence = blobCircularity * blobArea / (blobArea + 4 * minArea);
+            if (this.hasCircle(circleCount, cx, cy, blobRadius)) {
+                blobConfidence = Math.min(1.0, blobConfidence + houghBoost);
+            }
+
+            this.insert(offsetX + cx * scale, offsetY + cy * scale, blobRadius * scale,
+                    blobArea, blobCircularity, blobConfidence);
+        }
+        return count;
+    }
+
+    /*
+    * copy the circles from HoughCircles (x, y, radius as floats) to the
+    * reused array
+    */
+    private int readCircles(Mat circles) {
+        int n = (int) circles.total();
+        if (n == 0) {
+            return 0;
+        }
+        if (circleData.length < 3 * n) {
+            circleData = new float[6 * n];
+        }
+        circles.get(0, 0, circleData);
+        return n;
+    }
+
+    /*
+    * whether a Hough circle centre is inside the blob, image coordinates
+    */
+    private boolean hasCircle(int circleCount, double cx, double cy, double r) {
+        for (int i = 0; i < circleCount; i++) {
+            double dx = circleData[3 * i] - cx;
+            double dy = circleData[3 * i + 1] - cy;
+            if (dx * dx + dy * dy <= r * r) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+    * put a candidate in its place by confidence, the last one falls out
+    * when the arrays are full
+    */
+    private void insert(double cx, double cy, double r, double a, double c, double conf) {
+        int position = count;
+        while (position > 0 && confidence[position - 1] < conf) {
+            position--;
+        }
+        if (position >= capacity) {
+            return;
+        }
+        int last = Math.min(count, capacity - 1);
+        for (int i = last; i > position; i--) {
+            x[i] = x[i - 1];
+            y[i] = y[i - 1];
+            radius[i] = radius[i - 1];
+            area[i] = area[i - 1];
+            circularity[i] = circularity[i - 1];
+            confidence[i] = confidence[i - 1];
+        }
+        x[position] = cx;
+        y[position] = cy;
+        radius[position] = r;
+        area[position] = a;
+        circularity[position] = c;
+        confidence[position] = conf;
+        if (count < capacity) {
+            count++;
+        }
+    }
+
+    /**
+     * number of candidates from the last analyze
+     *
+     * @return candidates
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * centroid x of the candidates, camera frame pixels. only the first
+     * getCount() are valid
+     *
+     * @return the array
+     */
+    public double[] getX() {
+        return x;
+    }
+
+    public double[] getY() {
+        return y;
+    }
+
+    /**
+     * radius of a circle with the same area, camera frame pixels
+     *
+     * @return the array
+     */
+    public double[] getRadius() {
+        return radius;
+    }
+
+    /**
+     * area in camera frame pixels
+     *
+     * @return the array
+     */
+    public double[] getArea() {
+        return area;
+    }
+
+    public double[] getCircularity() {
+        return circularity;
+    }
+
+    /**
+     * confidence of the candidates, 0 to 1, highest first
+     *
+     * @return the array
+     */
+    public double[] getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * number of contours analyzed since the start
+     *
+     * @return contours
+     */
+    public long getContours() {
+        return contours;
+    }
+
+    /**
+     * contours dropped because the area was too small
+     *
+     * @return contours
+     */
+    public long getTooSmall() {
+        return tooSmall;
+    }
+
+    /**
+     * contours dropped because they were not round enough
+     *
+     * @return contours
+     */
+    public long getNotRound() {
+        return notRound;
+    }
+}
@@ -5,126 +5,117 @@
  */
 package udp.server;
 
-import java.awt.Graphics2D;
-import java.awt.Image;
-import java.awt.geom.AffineTransform;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.highgui.Highgui;
 import org.opencv.highgui.VideoCapture;
-import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.imageio.ImageIO;
 
 /**
  *
  * @author Eivind Fugledal
  */
 public class CameraCapture extends Thread {
-    
+
     private VideoCapture capture;
-    private Mat frame;
-    private MatOfByte mob;
-    private BufferedImage buff;
+    private final FrameExchange exchange;
+    private Mat frame; // last published frame, read only
+    private JpegEncoder encoder;
     private CameraSender cameraSender;
-    
-    public CameraCapture()
+    private final SubscriberRegistry subscribers;
+    private final VideoQualityGovernor governor;
+    private long lastSent;
+    private final long grabRetry = 10000000L; // ns, wait after a failed grab
+    private boolean grabFailing;
+
+    public CameraCapture(SubscriberRegistry subscribers, VideoQualityGovernor governor)
     {
+        this.subscribers = subscribers;
+        this.governor = governor;
         System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
         capture = new VideoCapture(-1);
-        frame = new Mat();
-        mob = new MatOfByte();
+        exchange = new FrameExchange();
+        encoder = new JpegEncoder();
         cameraSender = new CameraSender();
     }
-    
+
     @Override
     public void run()
     {
         this.capture();
     }
-    
+
     private void capture()
-    {   
+    {
         while(true)
         {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            buff = this.getBufferedImage();
-            
-            if(buff != null)
+            if(!this.grabFrame())
+            {
+                // no camera or no frame, do not spin on it
+                if(!grabFailing)
+                {
+                    EventLog.warn("CAMERA GRAB FAILED");
+                    grabFailing = true;
+                }
+                LockSupport.parkNanos(grabRetry);
+                continue;
+            }
+            grabFailing = false;
+
+            // the tracker needs every frame, the GUI only gets frames at the rate the governor allows
+            boolean sendDue = !subscribers.isEmpty()
+                    && System.nanoTime() - lastSent >= governor.getFrameInterval() * 1000000L;
+
+            if(sendDue)
             {
                 try {
-                    //buff = this.scale(buff, buff.getType(), buff.getWidth(), buff.getHeight(), 0.25, 0.25);
-            
-                    ImageIO.write(buff, "jpg", baos);
-                    baos.flush();
-                    byte[] imageInByte = baos.toByteArray();
-                    baos.close();
-            
-                    cameraSender.send(Main.ipAdress, imageInByte, 8765);
-                
+                    // one JPEG encode straight from the Mat, the bytes go to the sender as they are
+                    int length = encoder.encode(frame, governor.getQuality(), governor.getScale());
+                    if(length > 0)
+                    {
+                        long start = System.nanoTime();
+                        cameraSender.send(subscribers.getSubscribers(), encoder.getBuffer(), length);
+                        lastSent = System.nanoTime();
+                        governor.frameSent(length, lastSent - start);
+                    }
+
                     Thread.sleep(5);
-            
-                } catch (IOException ex) {
-                    Logger.getLogger(CameraCapture.class.getName()).log(Level.SEVERE, null, ex);
+
                 } catch (InterruptedException ex) {
                     Logger.getLogger(CameraCapture.class.getName()).log(Level.SEVERE, null, ex);
                 }
             }
         }
     }
-    
-    private BufferedImage getBufferedImage()
+
+    /*
+    * grab the next frame from the camera and hand it to the tracker
+    */
+    private boolean grabFrame()
     {
-        BufferedImage returnImage;
-        returnImage = null;
         if(capture.grab())
         {
-            try {
-                capture.retrieve(frame);
-                this.setFrame(frame);
-               	Highgui.imencode(".jpg", frame, mob);
-		Image im;
-                im = ImageIO.read(new ByteArrayInputStream(mob.toArray()));
-	       	BufferedImage buff = (BufferedImage) im;
-                returnImage = buff;
-            } 
-            catch (IOException ex) {
-                //Logger.getLogger(DaemonThread.class.getName()).log(Level.SEVERE, null, ex);
+            long captureTime = System.nanoTime();
+            Mat back = exchange.getBackBuffer();
+            if(capture.retrieve(back) && !back.empty())
+            {
+                frame = exchange.publish(captureTime);
+                return true;
             }
         }
-        return returnImage;
+        return false;
     }
-    
-    private BufferedImage scale(BufferedImage sbi, int imageType, int dWidth, int dHeight, double fWidth, double fHeight) 
-    {
-        BufferedImage dbi = null;
-        if(sbi != null) {
-            //System.out.println(dWidth*fWidth);
-            dbi = new BufferedImage((int) (dWidth*fWidth), (int) (dHeight*fHeight), imageType);
-            Graphics2D g = dbi.createGraphics();
-            AffineTransform at = AffineTransform.getScaleInstance(fWidth, fHeight);
-            g.drawRenderedImage(sbi, at);
-        }
-        return dbi;
-    }
-    
-    private void setFrame(Mat frame)
-    {
-        this.frame = frame;
-        //this.frame = frame.clone();
-    }
-    
-    public Mat getFrame()
+
+    /**
+     * the exchange the tracker gets its frames from
+     *
+     * @return the frame exchange
+     */
+    public FrameExchange getFrameExchange()
     {
-        return this.frame;
+        return this.exchange;
     }
 
-    
+
 }
@@ -0,0 +1,189 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.nio.ByteBuffer;
+
+/**
+ * CameraFrameReassembler class. reference implementation of the receiving side
+ * of the fragmented camera stream sent by CameraSender.
+ *
+ * only the newest frame is assembled. fragments of older frames are dropped,
+ * and a frame that is still incomplete when a newer frame starts is thrown
+ * away, so a lost datagram never stalls the stream. when the ids jump back
+ * by more than resyncGap the sender has restarted, and its frames are taken
+ */
+public class CameraFrameReassembler {
+
+    private final int maxFrameLength;
+    // a frame id this far behind the current one means the sender restarted
+    private final int resyncGap = 1000;
+
+    private byte[] frame;
+    private boolean[] received;
+    private int frameId;
+    private int frameLength;
+    private int fragmentCount;
+    private int fragmentsReceived;
+    private boolean assembling;
+    private boolean hasFrameId;
+
+    private long framesCompleted;
+    private long framesIncomplete;
+    private long fragmentsStale;
+    private long fragmentsInvalid;
+    private long resyncs;
+
+    /**
+     * create a new reassembler
+     *
+     * @param maxFrameLength the largest frame that will be accepted
+     */
+    public CameraFrameReassembler(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+        this.frame = new byte[CameraSender.MAX_PAYLOAD];
+        this.received = new boolean[1];
+    }
+
+    /**
+     * handle one received datagram
+     *
+     * @param datagram the datagram buffer
+     * @param offset start of the datagram
+     * @param length length of the datagram
+     * @return true if this fragment completed a frame, see getFrame()
+     */
+    public boolean accept(byte[] datagram, int offset, int length) {
+        if (length < CameraSender.HEADER_LENGTH) {
+            fragmentsInvalid++;
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(datagram, offset, CameraSender.HEADER_LENGTH);
+        int id = header.getInt();
+        int index = header.getShort() & 0xFFFF;
+        int count = header.getShort() & 0xFFFF;
+        int total = header.getInt();
+        int payload = length - CameraSender.HEADER_LENGTH;
+
+        if (total < 0 || total > maxFrameLength || count != fragmentsFor(total) || index >= count
+                || payload != Math.min(CameraSender.MAX_PAYLOAD, total - index * CameraSender.MAX_PAYLOAD)) {
+            // every fragment but the last is full, so the fragments cover the frame exactly
+            fragmentsInvalid++;
+            return false;
+        }
+
+        if (hasFrameId && id != frameId) {
+            if (id - frameId < -resyncGap) {
+                // far behind, the sender has restarted its ids
+                resyncs++;
+            } else if (id - frameId < 0) {
+                // fragment of a frame older than the one we are building
+                fragmentsStale++;
+                return false;
+            }
+            if (assembling) {
+                framesIncomplete++;
+            }
+            this.startFrame(id, count, total);
+        } else if (!hasFrameId) {
+            this.startFrame(id, count, total);
+        } else if (!assembling) {
+            // duplicate of a frame that is already delivered
+            fragmentsStale++;
+            return false;
+        } else if (count != fragmentCount || total != frameLength) {
+            fragmentsInvalid++;
+            return false;
+        }
+
+        if (received[index]) {
+            return false;
+        }
+        received[index] = true;
+        System.arraycopy(datagram, offset + CameraSender.HEADER_LENGTH, frame, index * CameraSender.MAX_PAYLOAD, payload);
+        fragmentsReceived++;
+
+        if (fragmentsReceived == fragmentCount) {
+            assembling = false;
+            framesCompleted++;
+            return true;
+        }
+        return false;
+    }
+
+    /*
+    * number of fragments of a frame, as CameraSender splits it
+    */
+    private static int fragmentsFor(int total) {
+        return (total + CameraSender.MAX_PAYLOAD - 1) / CameraSender.MAX_PAYLOAD;
+    }
+
+    /**
+     * reset state for a new frame. buffers are reused when they are large
+     * enough
+     */
+    private void startFrame(int id, int count, int total) {
+        if (frame.length < total) {
+            frame = new byte[total];
+        }
+        if (received.length < count) {
+            received = new boolean[count];
+        } else {
+            for (int i = 0; i < count; i++) {
+                received[i] = false;
+            }
+        }
+        frameId = id;
+        fragmentCount = count;
+        frameLength = total;
+        fragmentsReceived = 0;
+        assembling = true;
+        hasFrameId = true;
+    }
+
+    /**
+     * the last completed frame. the array is reused, only the first
+     * getFrameLength() bytes are valid and only until the next call to accept
+     *
+     * @return the frame buffer
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
+
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    public int getFrameId() {
+        return frameId;
+    }
+
+    public long getFramesCompleted() {
+        return framesCompleted;
+    }
+
+    public long getFramesIncomplete() {
+        return framesIncomplete;
+    }
+
+    public long getFragmentsStale() {
+        return fragmentsStale;
+    }
+
+    public long getFragmentsInvalid() {
+        return fragmentsInvalid;
+    }
+
+    /**
+     * number of times the frame ids jumped back and the reassembler followed
+     *
+     * @return resyncs
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+}
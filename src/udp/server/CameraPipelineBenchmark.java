@@ -0,0 +1,134 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.highgui.Highgui;
+import org.opencv.highgui.VideoCapture;
+
+/**
+ * CameraPipelineBenchmark class. compares the frames per second of the old
+ * camera path (imencode, ImageIO.read and ImageIO.write, three codec passes)
+ * with the single encode of JpegEncoder.
+ *
+ * usage: CameraPipelineBenchmark [frames] [image file]. without an image file
+ * a frame from the camera is used, or a drawn test frame if there is no camera
+ */
+public class CameraPipelineBenchmark {
+
+    private final Mat frame;
+    private final int frames;
+
+    public CameraPipelineBenchmark(Mat frame, int frames) {
+        this.frame = frame;
+        this.frames = frames;
+    }
+
+    /**
+     * run both paths and print the result
+     *
+     * @throws IOException
+     */
+    public void run() throws IOException {
+        // warm up both paths before measuring
+        this.runOldPath(Math.max(1, frames / 10));
+        this.runNewPath(Math.max(1, frames / 10));
+
+        long start = System.nanoTime();
+        long oldBytes = this.runOldPath(frames);
+        double oldFps = frames / ((System.nanoTime() - start) / 1e9);
+
+        start = System.nanoTime();
+        long newBytes = this.runNewPath(frames);
+        double newFps = frames / ((System.nanoTime() - start) / 1e9);
+
+        System.out.println(String.format("frame %dx%d, %d frames", frame.cols(), frame.rows(), frames));
+        System.out.println(String.format("before (imencode + ImageIO.read + ImageIO.write): %.1f fps, %d bytes/frame", oldFps, oldBytes / frames));
+        System.out.println(String.format("after  (single imencode, reused buffer):          %.1f fps, %d bytes/frame", newFps, newBytes / frames));
+        System.out.println(String.format("speedup: %.2fx", newFps / oldFps));
+    }
+
+    /**
+     * the path CameraCapture used before: encode, decode, encode again
+     */
+    private long runOldPath(int n) throws IOException {
+        MatOfByte mob = new MatOfByte();
+        long bytes = 0;
+        for (int i = 0; i < n; i++) {
+            Highgui.imencode(".jpg", frame, mob);
+            BufferedImage image = ImageIO.read(new ByteArrayInputStream(mob.toArray()));
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ImageIO.write(image, "jpg", baos);
+            baos.flush();
+            byte[] imageInByte = baos.toByteArray();
+            baos.close();
+            bytes += imageInByte.length;
+        }
+        mob.release();
+        return bytes;
+    }
+
+    /**
+     * the current path: one encode into a reused buffer
+     */
+    private long runNewPath(int n) {
+        JpegEncoder encoder = new JpegEncoder();
+        long bytes = 0;
+        for (int i = 0; i < n; i++) {
+            bytes += encoder.encode(frame, 75, 1.0);
+        }
+        return bytes;
+    }
+
+    /**
+     * get a frame from the camera, or draw one if there is no camera
+     */
+    static Mat testFrame() {
+        Mat frame = new Mat();
+        VideoCapture capture = new VideoCapture(-1);
+        if (capture.isOpened() && capture.grab() && capture.retrieve(frame) && !frame.empty()) {
+            capture.release();
+            return frame;
+        }
+        capture.release();
+
+        frame = new Mat(480, 640, CvType.CV_8UC3, new Scalar(90, 120, 60));
+        for (int i = 0; i < 40; i++) {
+            Core.circle(frame, new Point((i * 97) % 640, (i * 53) % 480), 10 + (i * 7) % 50,
+                    new Scalar((i * 31) % 255, (i * 67) % 255, (i * 13) % 255), -1);
+        }
+        return frame;
+    }
+
+    /**
+     * start the benchmark
+     *
+     * @param args number of frames, image file
+     */
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        Mat frame = args.length > 1 ? Highgui.imread(args[1]) : testFrame();
+
+        try {
+            new CameraPipelineBenchmark(frame, frames).run();
+        } catch (IOException ex) {
+            Logger.getLogger(CameraPipelineBenchmark.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -6,57 +6,213 @@
 package udp.server;
 
 import java.io.IOException;
-import java.net.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.util.logging.*;
 
 /**
+ * CameraSender class. sends JPEG frames to the GUI. a frame is split into
+ * fragments that fit in one datagram, each fragment starts with a header:
+ *
+ * Byte 0-3: frame id, Byte 4-5: fragment index, Byte 6-7: fragment count,
+ * Byte 8-11: frame length. all values are big endian.
+ *
+ * the channel and the fragment buffer are kept for the lifetime of the sender,
+ * so sending a frame does not allocate. each fragment is built once and sent to
+ * every subscriber. when a send to one subscriber fails, only that subscriber
+ * misses the rest of the frame.
+ *
+ * see CameraFrameReassembler for the receiving side
  *
  * @author Eivind Fugledal
  */
 public class CameraSender {
-    
-    private DatagramSocket clientSocket;
-    
+
+    /** length of the fragment header */
+    public static final int HEADER_LENGTH = 12;
+    /** max image bytes in one fragment, keeps the datagram below a 1500 byte MTU */
+    public static final int MAX_PAYLOAD = 1400;
+
+    private final long rateWindow = 1000000000L; // ns
+    private final long statsInterval = 10000000000L; // ns
+
+    private DatagramChannel channel;
+    private final ByteBuffer fragment;
+    private int frameId;
+    // subscribers that failed during the current frame
+    private boolean[] failed;
+
+    // statistics, read from other threads
+    private final LatencyHistogram frameSendTime;
+    private volatile long framesSent;
+    private volatile long bytesSent;
+    private volatile long sendFailures;
+    private long windowStart;
+    private long windowBytes;
+    private volatile double bytesPerSecond;
+    private long lastStatsTime;
+
     public CameraSender() {
-           // nothing to do here
+        this.fragment = ByteBuffer.allocateDirect(HEADER_LENGTH + MAX_PAYLOAD);
+        this.failed = new boolean[1];
+        this.frameSendTime = new LatencyHistogram();
+        this.windowStart = System.nanoTime();
+        this.lastStatsTime = this.windowStart;
     }
-    
+
     /*
-    * init method
+    * open the channel if it is not open
     */
-    private void init(){
+    private boolean init(){
+        if (channel != null && channel.isOpen()) {
+            return true;
+        }
         try {
-            clientSocket = new DatagramSocket();
-        }  catch (SocketException ex) {
+            channel = DatagramChannel.open();
+            return true;
+        }  catch (IOException ex) {
             Logger.getLogger(CameraSender.class.getName()).log(Level.SEVERE, null, ex);
+            return false;
+        }
+    }
+
+    /*
+    * send a frame to all subscribers, split into fragments
+    */
+    public void send(SubscriberRegistry.Subscriber[] targets, byte[] data){
+        this.send(targets, data, data.length);
+    }
+
+    /*
+    * send the first length bytes of data to all subscribers, split into fragments
+    */
+    public void send(SubscriberRegistry.Subscriber[] targets, byte[] data, int length){
+        if (targets.length == 0 || !this.init()) {
+            return;
+        }
+        int fragmentCount = (length + MAX_PAYLOAD - 1) / MAX_PAYLOAD;
+        if (fragmentCount > 0xFFFF) {
+            Logger.getLogger(CameraSender.class.getName()).log(Level.WARNING, "frame too large: {0} bytes", length);
+            return;
+        }
+        frameId++;
+        long start = System.nanoTime();
+        if (failed.length < targets.length) {
+            failed = new boolean[targets.length];
+        }
+        for (int t = 0; t < targets.length; t++) {
+            failed[t] = false;
+        }
+        int delivered = targets.length;
+
+        for (int i = 0; i < fragmentCount; i++) {
+            int offset = i * MAX_PAYLOAD;
+            int size = Math.min(MAX_PAYLOAD, length - offset);
+
+            fragment.clear();
+            fragment.putInt(frameId);
+            fragment.putShort((short) i);
+            fragment.putShort((short) fragmentCount);
+            fragment.putInt(length);
+            fragment.put(data, offset, size);
+            fragment.flip();
+
+            for (int t = 0; t < targets.length; t++) {
+                if (failed[t]) {
+                    continue;
+                }
+                fragment.position(0);
+                try {
+                    channel.send(fragment, targets[t].getVideoAddress());
+                } catch (IOException ex) {
+                    if (!channel.isOpen()) {
+                        // the channel itself is gone, no one gets this frame
+                        Logger.getLogger(CameraSender.class.getName()).log(Level.SEVERE, null, ex);
+                        this.close();
+                        return;
+                    }
+                    // skip only this subscriber for the rest of the frame
+                    EventLog.log(EventLog.WARN, "CAMERA send failed to {o}", targets[t].getVideoAddress() + ": " + ex);
+                    failed[t] = true;
+                    delivered--;
+                    sendFailures++;
+                }
+            }
+        }
+
+        long end = System.nanoTime();
+        frameSendTime.record(end - start);
+        this.updateStatistics(end, length * delivered);
+    }
+
+    /*
+    * update the byte rate and print a summary at a fixed interval
+    */
+    private void updateStatistics(long now, int length) {
+        framesSent++;
+        bytesSent += length;
+        windowBytes += length;
+
+        long elapsed = now - windowStart;
+        if (elapsed >= rateWindow) {
+            bytesPerSecond = windowBytes * 1e9 / elapsed;
+            windowBytes = 0;
+            windowStart = now;
         }
 
+        if (now - lastStatsTime >= statsInterval) {
+            EventLog.log(EventLog.INFO, "{o}", String.format("CAMERA out: %.1f kB/s, frames: %d, send failures: %d, send: %s",
+                    bytesPerSecond / 1000.0, framesSent, sendFailures, frameSendTime));
+            lastStatsTime = now;
+        }
     }
-    
-    /* 
-    * send byte[] packet to socket 
+
+    /*
+    * close the channel, it is opened again on the next send
     */
-    public void send(String ipAddress, byte[] data, int port){
-        this.init();
-        //System.out.println(data.length);
-        
-         try {
-            
-            DatagramPacket packet = new DatagramPacket(data, 
-                                        data.length, 
-                                        InetAddress.getByName(ipAddress),
-                                        port);
-            clientSocket.send(packet);
-            //System.out.println(data.length + "   PORT " + port);
-            //System.out.println(Arrays.toString(data));
-            //System.out.println("UDP send");
-            //System.out.println(ipAddress);
+    public void close() {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
         } catch (IOException ex) {
             Logger.getLogger(CameraSender.class.getName()).log(Level.SEVERE, null, ex);
-        } finally {
-            clientSocket.close();
         }
     }
-    
+
+    /**
+     * time used to send one frame, all fragments
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getFrameSendTime() {
+        return frameSendTime;
+    }
+
+    /**
+     * image bytes sent per second, measured over the last second
+     *
+     * @return bytes per second
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * number of frames a subscriber missed because a send to it failed
+     *
+     * @return failures
+     */
+    public long getSendFailures() {
+        return sendFailures;
+    }
+
 }
@@ -0,0 +1,174 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * ColorLookupTable class. segments a BGR image without converting it to HSV.
+ *
+ * every BGR colour, quantized to 5 bits per channel, is looked up in a 32 kB
+ * table built from the HSV ranges. the table gives both masks the tracker
+ * uses: the colour range of the target (what cvtColor and inRange give) and
+ * the distance mask (magnitude of 255 - S and 255 - V below a limit). the
+ * image is read once and both masks are written in the same pass.
+ *
+ * the table is only rebuilt when the ranges change. not thread safe, the
+ * segmentation stage owns it
+ *
+ * the speed on the board has not been measured yet, so the tracker only uses
+ * the table with -Dtracker.segmentation=lut. run SegmentationBenchmark on the
+ * board before making it the default
+ */
+public class ColorLookupTable {
+
+    private static final int BITS = 5;
+    private static final int SHIFT = 8 - BITS;
+    private static final int LEVELS = 1 << BITS;
+
+    static final byte IN_RANGE = 1;
+    static final byte IN_DISTANCE = 2;
+
+    private final byte[] table;
+    private final double maxDistance;
+    private final int[] range;
+    private boolean built;
+
+    // reused between frames, grow if the image gets bigger
+    private byte[] pixels;
+    private byte[] maskPixels;
+    private byte[] distancePixels;
+
+    /**
+     * create an empty table, call setRange before apply
+     *
+     * @param maxDistance limit of the distance mask
+     */
+    public ColorLookupTable(double maxDistance) {
+        this.table = new byte[LEVELS * LEVELS * LEVELS];
+        this.maxDistance = maxDistance;
+        this.range = new int[6];
+        this.pixels = new byte[0];
+        this.maskPixels = new byte[0];
+        this.distancePixels = new byte[0];
+    }
+
+    /**
+     * set the HSV range of the target, in OpenCV units (hue 0-180,
+     * saturation and value 0-255). the table is rebuilt if the range changed
+     *
+     * @return true if the table was rebuilt
+     */
+    public boolean setRange(int hueMin, int hueMax, int satMin, int satMax, int valMin, int valMax) {
+        if (built && range[0] == hueMin && range[1] == hueMax && range[2] == satMin
+                && range[3] == satMax && range[4] == valMin && range[5] == valMax) {
+            return false;
+        }
+        range[0] = hueMin;
+        range[1] = hueMax;
+        range[2] = satMin;
+        range[3] = satMax;
+        range[4] = valMin;
+        range[5] = valMax;
+        this.build();
+        built = true;
+        return true;
+    }
+
+    /*
+    * fill the table with the centre colour of every quantized cell
+    */
+    private void build() {
+        int half = 1 << (SHIFT - 1);
+        for (int b = 0; b < LEVELS; b++) {
+            for (int g = 0; g < LEVELS; g++) {
+                for (int r = 0; r < LEVELS; r++) {
+                    table[index(b, g, r)] = classify((b << SHIFT) | half, (g << SHIFT) | half, (r << SHIFT) | half);
+                }
+            }
+        }
+    }
+
+    /*
+    * HSV of one colour the way cvtColor computes it for 8 bit images, and
+    * the masks it falls in
+    */
+    private byte classify(int b, int g, int r) {
+        int v = Math.max(b, Math.max(g, r));
+        int min = Math.min(b, Math.min(g, r));
+        int diff = v - min;
+        int s = v == 0 ? 0 : (int) Math.round(diff * 255.0 / v);
+        double h = 0;
+        if (diff != 0) {
+            if (v == r) {
+                h = 60.0 * (g - b) / diff;
+            } else if (v == g) {
+                h = 120.0 + 60.0 * (b - r) / diff;
+            } else {
+                h = 240.0 + 60.0 * (r - g) / diff;
+            }
+            if (h < 0) {
+                h += 360.0;
+            }
+        }
+        int hue = (int) Math.round(h / 2) % 180;
+
+        byte result = 0;
+        if (hue >= range[0] && hue <= range[1] && s >= range[2] && s <= range[3]
+                && v >= range[4] && v <= range[5]) {
+            result |= IN_RANGE;
+        }
+        if (Math.hypot(255 - s, 255 - v) <= maxDistance) {
+            result |= IN_DISTANCE;
+        }
+        return result;
+    }
+
+    private static int index(int b, int g, int r) {
+        return (b << (2 * BITS)) | (g << BITS) | r;
+    }
+
+    /**
+     * segment a BGR image
+     *
+     * @param image 8 bit BGR image
+     * @param mask colour range mask, 255 in range and 0 outside. null if not
+     * needed
+     * @param distanceMask distance mask, 255 in range and 0 outside. null if
+     * not needed
+     */
+    public void apply(Mat image, Mat mask, Mat distanceMask) {
+        int rows = image.rows();
+        int cols = image.cols();
+        int count = rows * cols;
+        if (pixels.length < 3 * count) {
+            pixels = new byte[3 * count];
+            maskPixels = new byte[count];
+            distancePixels = new byte[count];
+        }
+        image.get(0, 0, pixels);
+
+        byte[] lut = table;
+        for (int i = 0, p = 0; i < count; i++, p += 3) {
+            int cell = lut[(((pixels[p] & 0xFF) >> SHIFT) << (2 * BITS))
+                    | (((pixels[p + 1] & 0xFF) >> SHIFT) << BITS)
+                    | ((pixels[p + 2] & 0xFF) >> SHIFT)];
+            maskPixels[i] = (cell & IN_RANGE) != 0 ? (byte) 255 : 0;
+            distancePixels[i] = (cell & IN_DISTANCE) != 0 ? (byte) 255 : 0;
+        }
+
+        // the buffers may be longer than the image, put only copies what fits
+        if (mask != null) {
+            mask.create(rows, cols, CvType.CV_8UC1);
+            mask.put(0, 0, maskPixels);
+        }
+        if (distanceMask != null) {
+            distanceMask.create(rows, cols, CvType.CV_8UC1);
+            distanceMask.put(0, 0, distancePixels);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import org.opencv.core.Scalar;
+
+/**
+ * ColorRange class. the colour range of the target in OpenCV HSV units (hue
+ * 0-180, saturation and value 0-255).
+ *
+ * immutable, a new range is a new object. ObjectTracker publishes it through
+ * one volatile field, so the segmentation thread always sees a whole range.
+ * the Scalars for inRange must not be changed
+ */
+public final class ColorRange {
+
+    private final int hueMin;
+    private final int hueMax;
+    private final int satMin;
+    private final int satMax;
+    private final int valMin;
+    private final int valMax;
+    private final Scalar min;
+    private final Scalar max;
+
+    public ColorRange(int hueMin, int hueMax, int satMin, int satMax, int valMin, int valMax) {
+        this.hueMin = hueMin;
+        this.hueMax = hueMax;
+        this.satMin = satMin;
+        this.satMax = satMax;
+        this.valMin = valMin;
+        this.valMax = valMax;
+        this.min = new Scalar(hueMin, satMin, valMin);
+        this.max = new Scalar(hueMax, satMax, valMax);
+    }
+
+    public int getHueMin() {
+        return hueMin;
+    }
+
+    public int getHueMax() {
+        return hueMax;
+    }
+
+    public int getSatMin() {
+        return satMin;
+    }
+
+    public int getSatMax() {
+        return satMax;
+    }
+
+    public int getValMin() {
+        return valMin;
+    }
+
+    public int getValMax() {
+        return valMax;
+    }
+
+    /**
+     * lower bound for Core.inRange, read only
+     *
+     * @return hue, saturation and value
+     */
+    public Scalar getMin() {
+        return min;
+    }
+
+    /**
+     * upper bound for Core.inRange, read only
+     *
+     * @return hue, saturation and value
+     */
+    public Scalar getMax() {
+        return max;
+    }
+}
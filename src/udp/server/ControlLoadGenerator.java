@@ -0,0 +1,223 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * ControlLoadGenerator class. simulates a GUI on the loopback interface to
+ * benchmark the control path (UDPServer, DataHandler and Controller).
+ *
+ * sends sequenced control frames with a new request code in every frame and
+ * measures the time until the feedback with the same request code comes back.
+ *
+ * usage: ControlLoadGenerator [host] [rate per second] [seconds] [pattern],
+ * pattern is constant, burst (frames sent in groups of ten) or ramp (rate
+ * increases from zero to the given rate). run it on the car or on any machine
+ * with the server running, no other GUI should be connected
+ *
+ * the frames hold the STOP bit, so the car does not move. -Dload.motion=true
+ * sends FORWARD with sensitivity 50 instead, only with the car on a stand
+ */
+public class ControlLoadGenerator {
+
+    private final int serverPort = 9876;
+    private final int feedbackPort = 9877;
+    private final int burstSize = 10;
+    // drive the motors, off unless asked for
+    private final boolean motion = Boolean.getBoolean("load.motion");
+
+    private final InetAddress host;
+    private final int rate;
+    private final int seconds;
+    private final String pattern;
+
+    private final AtomicLongArray sentAt;
+    private final LatencyHistogram latency;
+    private volatile boolean running;
+    private long sent;
+    private long received;
+    private long unmatched;
+
+    /**
+     * create a new load generator
+     *
+     * @param host address of the server
+     * @param rate frames per second
+     * @param seconds length of the run
+     * @param pattern constant, burst or ramp
+     */
+    public ControlLoadGenerator(InetAddress host, int rate, int seconds, String pattern) {
+        this.host = host;
+        this.rate = rate;
+        this.seconds = seconds;
+        this.pattern = pattern;
+        this.sentAt = new AtomicLongArray(256);
+        this.latency = new LatencyHistogram();
+    }
+
+    /**
+     * run the benchmark and print the result
+     *
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public void run() throws IOException, InterruptedException {
+        try (DatagramSocket out = new DatagramSocket();
+                DatagramSocket in = new DatagramSocket(feedbackPort)) {
+            in.setSoTimeout(100);
+            running = true;
+
+            Thread receiver = new Thread(() -> this.receive(in), "load receiver");
+            receiver.start();
+
+            long start = System.nanoTime();
+            this.send(out, start);
+            long sendTime = System.nanoTime() - start;
+
+            // wait for the last answers
+            Thread.sleep(500);
+            running = false;
+            receiver.join();
+
+            this.report(sendTime);
+        }
+    }
+
+    /**
+     * send frames following the pattern until the time is up
+     */
+    private void send(DatagramSocket out, long start) throws IOException {
+        byte[] frame = new byte[19];
+        DatagramPacket packet = new DatagramPacket(frame, frame.length, host, serverPort);
+        long end = start + seconds * 1000000000L;
+        long next = start;
+        int sequence = 0;
+        byte requestCode = 0;
+
+        if (motion) {
+            frame[Protocol.CONTROLS.getValue()] = (byte) (1 << Protocol.controls.FORWARD.getValue());
+            frame[Protocol.SENSITIVITY.getValue()] = 50;
+        } else {
+            frame[Protocol.CONTROLS.getValue()] = (byte) (1 << Protocol.controls.STOP.getValue());
+        }
+
+        while (true) {
+            long now = System.nanoTime();
+            if (now >= end) {
+                break;
+            }
+            if (now < next) {
+                LockSupport.parkNanos(next - now);
+                continue;
+            }
+
+            int count = "burst".equals(pattern) ? burstSize : 1;
+            for (int i = 0; i < count; i++) {
+                requestCode++;
+                if (requestCode == 0) {
+                    requestCode++;
+                }
+                sequence++;
+                frame[Protocol.REQUEST_FEEDBACK.getValue()] = requestCode;
+                putInt(frame, 11, sequence);
+                putInt(frame, 15, (int) System.currentTimeMillis());
+
+                if (sentAt.getAndSet(requestCode & 0xFF, System.nanoTime()) != 0) {
+                    // the code is reused before the answer came back
+                    unmatched++;
+                }
+                out.send(packet);
+                sent++;
+            }
+
+            double currentRate = rate;
+            if ("ramp".equals(pattern)) {
+                currentRate = Math.max(1.0, rate * (double) (now - start) / (end - start));
+            }
+            next += (long) (count * 1e9 / currentRate);
+        }
+    }
+
+    /**
+     * receive feedback and match it with the sent frames
+     */
+    private void receive(DatagramSocket in) {
+        byte[] data = new byte[512];
+        DatagramPacket packet = new DatagramPacket(data, data.length);
+        while (running) {
+            try {
+                in.receive(packet);
+            } catch (SocketTimeoutException ex) {
+                continue;
+            } catch (IOException ex) {
+                Logger.getLogger(ControlLoadGenerator.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+            long now = System.nanoTime();
+            // the feedback is the only datagram with exactly six bytes
+            if (packet.getLength() != 6) {
+                continue;
+            }
+            long start = sentAt.getAndSet(data[5] & 0xFF, 0);
+            if (start != 0) {
+                latency.record(now - start);
+                received++;
+            }
+        }
+    }
+
+    /**
+     * print the result
+     */
+    private void report(long sendTime) {
+        double elapsed = sendTime / 1e9;
+        double lost = sent == 0 ? 0 : 100.0 * (sent - received) / sent;
+        System.out.println(String.format("pattern: %s, target rate: %d/s, duration: %.1f s, motion: %s",
+                pattern, rate, elapsed, motion ? "forward" : "stop"));
+        System.out.println(String.format("sent: %d (%.1f/s), answered: %d (%.1f/s), unanswered: %.2f %%, codes reused before answer: %d",
+                sent, sent / elapsed, received, received / elapsed, lost, unmatched));
+        System.out.println(String.format("latency p50: %.3f ms, p99: %.3f ms, max: %.3f ms, mean: %.3f ms",
+                latency.getPercentile(50) / 1e6, latency.getPercentile(99) / 1e6,
+                latency.getMax() / 1e6, latency.getMean() / 1e6));
+    }
+
+    /**
+     * write a 32 bit value to an array, big endian
+     */
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * start the load generator
+     *
+     * @param args host, rate, seconds, pattern
+     */
+    public static void main(String[] args) {
+        try {
+            InetAddress host = InetAddress.getByName(args.length > 0 ? args[0] : "127.0.0.1");
+            int rate = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+            int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+            String pattern = args.length > 3 ? args[3] : "constant";
+
+            new ControlLoadGenerator(host, rate, seconds, pattern).run();
+        } catch (IOException | InterruptedException ex) {
+            Logger.getLogger(ControlLoadGenerator.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.net.InetAddress;
+
+/**
+ * ControlSequencer class. decides which control frames from the GUI are
+ * applied. frames carry a sequence number and the GUI send time, a frame is
+ * rejected if it is older than the last applied frame (late) or if it spent
+ * too long on the way (stale).
+ *
+ * the clocks of the GUI and the server are not synchronized, so the age of a
+ * frame is measured against the smallest clock offset seen recently, which is
+ * the offset of a frame that was not delayed
+ *
+ * one GUI owns control at a time, frames from any other GUI are rejected
+ * until the owner has sent nothing for idleTimeout. then the next GUI that
+ * sends takes over and the state starts over. it also starts over when the
+ * sequence jumps back by more than resyncGap (the GUI restarted) and when no
+ * frame was accepted for idleTimeout (the GUI restarted or its clock was
+ * rebased, so every frame looks late or stale)
+ */
+public class ControlSequencer {
+
+    private final int maxDelay; // ms
+    private final long offsetWindow = 10000; // ms
+    private final int resyncGap = 1000; // sequence numbers
+    private final long idleTimeout = 1000; // ms
+
+    private InetAddress source;
+    private long lastSourceMillis;
+    private boolean hasSequence;
+    private int lastSequence;
+    private boolean hasAccepted;
+    private long lastAcceptedMillis;
+
+    private boolean hasOffset;
+    private long minOffset;
+    private long windowMinOffset;
+    private long windowStart;
+    private long lastDelay;
+
+    private long accepted;
+    private long superseded;
+    private long late;
+    private long stale;
+    private long resyncs;
+    private long rejected;
+
+    /**
+     * create a new ControlSequencer
+     *
+     * @param maxDelayMillis frames delayed more than this compared to the
+     * fastest recent frame are rejected
+     */
+    public ControlSequencer(int maxDelayMillis) {
+        this.maxDelay = maxDelayMillis;
+    }
+
+    /**
+     * check a received frame
+     *
+     * @param from address of the sender
+     * @param sequence sequence number of the frame
+     * @param sentMillis GUI time when the frame was sent, in ms
+     * @param nowMillis server time when the frame was received, in ms
+     * @return true if the frame is newer than the last applied one and not
+     * stale
+     */
+    public boolean isCurrent(InetAddress from, int sequence, int sentMillis, long nowMillis) {
+        if (!this.isFromOwner(from, nowMillis)) {
+            return false;
+        }
+        if (hasSequence && sequence - lastSequence < -resyncGap) {
+            // the GUI restarted its sequence
+            this.restart();
+            resyncs++;
+        } else if (hasAccepted && nowMillis - lastAcceptedMillis > idleTimeout) {
+            // nothing accepted for a while, the old state may reject everything
+            this.restart();
+            resyncs++;
+        }
+
+        if (hasSequence && sequence - lastSequence <= 0) {
+            late++;
+            return false;
+        }
+
+        // the clocks wrap as int, take the difference as int before widening
+        int difference = (int) nowMillis - sentMillis;
+        long offset = difference;
+        this.updateOffset(offset, nowMillis);
+        lastDelay = offset - minOffset;
+        if (lastDelay > maxDelay) {
+            stale++;
+            return false;
+        }
+        hasAccepted = true;
+        lastAcceptedMillis = nowMillis;
+        return true;
+    }
+
+    /**
+     * check that a frame comes from the GUI that owns control. the first GUI
+     * to send takes control, and another one can take it over only after the
+     * owner has sent nothing for idleTimeout. frames from the other GUIs are
+     * counted as rejected. used directly for frames without a sequence number
+     *
+     * @param from address of the sender
+     * @param nowMillis server time when the frame was received, in ms
+     * @return true if the sender owns control
+     */
+    public boolean isFromOwner(InetAddress from, long nowMillis) {
+        if (source != null && !source.equals(from)) {
+            if (nowMillis - lastSourceMillis <= idleTimeout) {
+                rejected++;
+                return false;
+            }
+        }
+        if (source == null || !source.equals(from)) {
+            // a new GUI takes over, start over
+            source = from;
+            this.restart();
+        }
+        lastSourceMillis = nowMillis;
+        return true;
+    }
+
+    /*
+    * forget the sequence and the clock offset
+    */
+    private void restart() {
+        hasSequence = false;
+        hasOffset = false;
+        hasAccepted = false;
+    }
+
+    /**
+     * mark a frame as applied
+     *
+     * @param sequence sequence number of the frame
+     */
+    public void applied(int sequence) {
+        lastSequence = sequence;
+        hasSequence = true;
+        accepted++;
+    }
+
+    /**
+     * count a frame that was dropped because a newer frame arrived in the
+     * same batch
+     */
+    public void superseded() {
+        superseded++;
+    }
+
+    /**
+     * keep the minimum clock offset over the current and the last window, so
+     * clock drift is followed without a jump when a window starts
+     */
+    private void updateOffset(long offset, long nowMillis) {
+        if (!hasOffset) {
+            minOffset = offset;
+            windowMinOffset = offset;
+            windowStart = nowMillis;
+            hasOffset = true;
+            return;
+        }
+        if (nowMillis - windowStart >= offsetWindow) {
+            minOffset = windowMinOffset;
+            windowMinOffset = offset;
+            windowStart = nowMillis;
+        }
+        if (offset < windowMinOffset) {
+            windowMinOffset = offset;
+        }
+        if (offset < minOffset) {
+            minOffset = offset;
+        }
+    }
+
+    /**
+     * delay of the last frame compared to the fastest recent frame
+     *
+     * @return delay in ms
+     */
+    public long getLastDelay() {
+        return lastDelay;
+    }
+
+    public long getAccepted() {
+        return accepted;
+    }
+
+    public long getSuperseded() {
+        return superseded;
+    }
+
+    public long getLate() {
+        return late;
+    }
+
+    public long getStale() {
+        return stale;
+    }
+
+    /**
+     * frames from a GUI that did not own control
+     *
+     * @return frames
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * number of times the state started over for the same GUI
+     *
+     * @return resyncs
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+}
@@ -139,6 +139,7 @@ public class Controller implements Runnable {
         logic.prossesButtonCommandsFromGui();
         // set requestCode from GUI to arduino
         dh.setRequestCodeToArduino(dh.getRequestCodeFromGui());
+        dh.getLatencyTracer().handledByController(dh.getRequestCodeFromGui());
 
         //dh.setDataFromGuiAvailable(false);
         release();
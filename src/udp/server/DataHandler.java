@@ -5,6 +5,9 @@
  */
 package udp.server;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Overview protocol: To Arduino: Byte 0: bit 0 - stopp bit 1 - fwd bit 2 - rev
  * bit 3 - left bit 4 - right Byte 1: Left motor speed Byte 2: Right motor speed
@@ -15,6 +18,8 @@ package udp.server;
  * Byte 2: Pixy y value low byte Byte 3: Pixy y value high byte Byte 4: Distance
  * sensor 4-30 cm Byte 5: Reserved
  *
+ * On the serial link every message is framed, see SerialFrame.
+ *
  * @author Eivind Fugledal
  */
 public class DataHandler {
@@ -27,9 +32,21 @@ public class DataHandler {
     private boolean threadStatus;
     private float pixyXvalue;
     private float pixyYvalue;
+    private boolean targetFound;
+    private long targetSequence;
+    private long targetCaptureTime;
+    private long targetTime;
+    // the camera frame the motor command in dataToArduino is based on
+    private long commandCaptureTime;
+    private long commandTime;
     private int distanceSensor;
     private byte requestCodeFromArduino;
     private boolean enableAUV;
+    private final LatencyTracer latencyTracer;
+    private final SerialLinkStatistics serialStatistics;
+    // changes to dataToArduino, the SerialWriter waits for a new version
+    private final AtomicLong commandVersion;
+    private volatile Thread commandWaiter;
 
     // pid parameters
     private double P; // prop gain
@@ -38,11 +55,15 @@ public class DataHandler {
     private double F; // feed fwd gain
     private double RR; // output ramp rate (max delta output)
     private boolean PIDparamChanged;
+    private double pidOutput;
 
     public DataHandler() {
         this.dataFromArduino = new byte[6];
         this.dataToArduino = new byte[6];
         this.dataFromGui = new byte[6];
+        this.latencyTracer = new LatencyTracer();
+        this.serialStatistics = new SerialLinkStatistics();
+        this.commandVersion = new AtomicLong();
     }
 
     //*****************************************************************
@@ -100,6 +121,24 @@ public class DataHandler {
         this.threadStatus = threadStatus;
     }
 
+    /**
+     * Gets the tracer that measures the latency of request codes from the GUI
+     *
+     * @return The latency tracer
+     */
+    public LatencyTracer getLatencyTracer() {
+        return latencyTracer;
+    }
+
+    /**
+     * statistics of the serial link to the Arduino, needs no semaphore
+     *
+     * @return the statistics
+     */
+    public SerialLinkStatistics getSerialStatistics() {
+        return serialStatistics;
+    }
+
     //*****************************************************************
     //*************** PID PARAMTERS ***********************************
     public double getP() {
@@ -130,14 +169,34 @@ public class DataHandler {
         return this.PIDparamChanged;
     }
 
+    /**
+     * Sets the last output from the PID regulator in auto mode
+     *
+     * @param output PID output
+     */
+    public void setPidOutput(double output) {
+        this.pidOutput = output;
+    }
+
+    /**
+     * Gets the last output from the PID regulator in auto mode
+     *
+     * @return PID output
+     */
+    public double getPidOutput() {
+        return this.pidOutput;
+    }
+
     //*****************************************************************
     //*************** FROM ARDUINO METHODS*****************************
     public void handleDataFromArduino(byte[] data) {
         // check if the array is of the same length and the requestcode has changed
         if (data.length == this.dataFromArduino.length && data[Protocol.REQUEST_FEEDBACK.getValue()] != this.getRequestCodeFromArduino()) {
-            this.dataFromArduino = data;
+            // the reader reuses its array, keep a copy
+            System.arraycopy(data, 0, this.dataFromArduino, 0, this.dataFromArduino.length);
             this.setDistanceSensor(data[4]);
             this.setRequestCodeFromArduino(data[Protocol.REQUEST_FEEDBACK.getValue()]);
+            this.latencyTracer.echoedByArduino(data[Protocol.REQUEST_FEEDBACK.getValue()]);
             //this.setPixyXvalue(new BigInteger(Arrays.copyOfRange(data, 0, 2)).intValue());
             //this.setPixyYvalue(new BigInteger(Arrays.copyOfRange(data, 2, 4)).intValue());
             this.dataFromArduinoAvaliable = true;
@@ -192,6 +251,91 @@ public class DataHandler {
         this.pixyYvalue = pixyYvalue;
     }
 
+    /**
+     * Sets the result of one camera frame from the tracker
+     *
+     * @param xAngle x angle to the target, +-255 if not found
+     * @param yAngle y angle to the target, +-255 if not found
+     * @param found true if the target was found
+     * @param sequence sequence number of the frame
+     * @param captureTime capture time of the frame, System.nanoTime()
+     */
+    public void setTarget(float xAngle, float yAngle, boolean found, long sequence, long captureTime) {
+        this.pixyXvalue = xAngle;
+        this.pixyYvalue = yAngle;
+        this.targetFound = found;
+        this.targetSequence = sequence;
+        this.targetCaptureTime = captureTime;
+        this.targetTime = System.nanoTime();
+    }
+
+    /**
+     * Gets whether the target was found in the last frame
+     *
+     * @return true if found
+     */
+    public boolean isTargetFound() {
+        return targetFound;
+    }
+
+    /**
+     * Gets the sequence number of the last frame from the tracker
+     *
+     * @return sequence number, 0 before the first frame
+     */
+    public long getTargetSequence() {
+        return targetSequence;
+    }
+
+    /**
+     * Gets the capture time of the last frame from the tracker
+     *
+     * @return System.nanoTime() at capture
+     */
+    public long getTargetCaptureTime() {
+        return targetCaptureTime;
+    }
+
+    /**
+     * Gets the time the last target was set
+     *
+     * @return System.nanoTime() when setTarget was called
+     */
+    public long getTargetTime() {
+        return targetTime;
+    }
+
+    /**
+     * Sets the camera frame the motor command is based on, call together
+     * with the command
+     *
+     * @param captureTime capture time of the frame, 0 if the command is not
+     * based on a frame
+     * @param commandTime time the command was made, System.nanoTime()
+     */
+    public void setCommandStamp(long captureTime, long commandTime) {
+        this.commandCaptureTime = captureTime;
+        this.commandTime = commandTime;
+    }
+
+    /**
+     * Gets the capture time of the frame the motor command is based on
+     *
+     * @return capture time, 0 if the command is not based on a frame
+     */
+    public long getCommandCaptureTime() {
+        return commandCaptureTime;
+    }
+
+    /**
+     * Gets the time the motor command was made
+     *
+     * @return System.nanoTime()
+     */
+    public long getCommandTime() {
+        return commandTime;
+    }
+
     /**
      * Gets value from distance sensor
      *
@@ -236,7 +380,6 @@ public class DataHandler {
      * @return The byte array
      */
     public byte[] getDataFromController() {
-        Main.enumStateEvent = SendEventState.FALSE;
         return this.dataToArduino;
     }
 
@@ -323,6 +466,17 @@ public class DataHandler {
         dataToArduino[i] = 0;
     }
 
+    /**
+     * Returns a specific byte from byte array to Arduino, without marking the
+     * data as sent
+     *
+     * @param i The specific byte
+     * @return The byte
+     */
+    public byte getToArduinoByte(int i) {
+        return dataToArduino[i];
+    }
+
     /**
      * Sets stop bit to high
      */
@@ -457,7 +611,7 @@ public class DataHandler {
         if (speed > 255.0f) {
             speed = 255.0f;
         }
-        System.out.println("left speed " + speed);
+        EventLog.log(EventLog.DEBUG, "left speed {f}", EventLog.f(speed));
         dataToArduino[Protocol.LEFT_MOTOR_SPEED.getValue()] = (byte) ((speed / 100) * this.getSensitivity());
         this.fireStateChanged();
 
@@ -480,7 +634,7 @@ public class DataHandler {
         if (speed > 255.0f) {
             speed = 255.0f;
         }
-        System.out.println("right speed " + speed);
+        EventLog.log(EventLog.DEBUG, "right speed {f}", EventLog.f(speed));
         dataToArduino[Protocol.RIGHT_MOTOR_SPEED.getValue()] = (byte) ((speed / 100) * this.getSensitivity());
         this.fireStateChanged();
     }
@@ -599,11 +753,47 @@ public class DataHandler {
         this.fireStateChanged();
     }
 
+    /**
+     * mark dataToArduino as changed and wake the SerialWriter
+     */
     public void fireStateChanged() {
-        Main.enumStateEvent = SendEventState.TRUE;
+        this.commandVersion.incrementAndGet();
+        LockSupport.unpark(this.commandWaiter);
     }
 
-    public boolean checkSendDataAvailable() {
-        return Main.enumStateEvent == SendEventState.TRUE;
+    /**
+     * the number of changes to dataToArduino since the start
+     *
+     * @return the version
+     */
+    public long getCommandVersion() {
+        return this.commandVersion.get();
+    }
+
+    /**
+     * wait until dataToArduino changes. does not need the semaphore, only
+     * one thread may wait
+     *
+     * @param version the version the caller has
+     * @param timeout max time to wait, ns
+     * @return the current version, the same as version on timeout
+     */
+    public long awaitCommandChange(long version, long timeout) {
+        long deadline = System.nanoTime() + timeout;
+        this.commandWaiter = Thread.currentThread();
+        try {
+            long current = this.commandVersion.get();
+            while (current == version) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    break;
+                }
+                LockSupport.parkNanos(this, left);
+                current = this.commandVersion.get();
+            }
+            return current;
+        } finally {
+            this.commandWaiter = null;
+        }
     }
 }
@@ -0,0 +1,328 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * EventLog class. asynchronous logger for the hot paths of the server.
+ *
+ * a log call only copies its arguments into a preallocated record in a ring
+ * buffer, the text is built and printed by a background thread. records are
+ * dropped (and counted) if the ring is full, a log call never blocks.
+ *
+ * the message is a constant template where {} is replaced by the next long
+ * argument, {f} by the next argument as a double (see f()), {o} by the object
+ * argument and {b} by the bytes argument. text that is only known at run
+ * time is never the template, a line formatted in advance is logged with the
+ * template "{o}". the level is set with
+ * -Dlog.level=debug|info|warn|off, default is info
+ */
+public final class EventLog {
+
+    public static final int DEBUG = 0;
+    public static final int INFO = 1;
+    public static final int WARN = 2;
+    public static final int OFF = 3;
+
+    private static final String[] LEVEL_NAMES = {"DEBUG", "INFO ", "WARN "};
+
+    private static final int CAPACITY = 4096; // power of two
+    private static final int MASK = CAPACITY - 1;
+    private static final int MAX_ARGS = 4;
+    private static final int MAX_BYTES = 32;
+    private static final long IDLE_PARK = 1000000L; // ns
+
+    /**
+     * one preallocated log record
+     */
+    private static final class Record {
+
+        int level;
+        long time;
+        String template;
+        final long[] args = new long[MAX_ARGS];
+        Object object;
+        final byte[] bytes = new byte[MAX_BYTES];
+        int byteCount;
+    }
+
+    private static final int minLevel = parseLevel(System.getProperty("log.level", "info"));
+    private static final long startTime = System.nanoTime();
+
+    private static final Record[] records = new Record[CAPACITY];
+    private static final AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+    private static long head;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            records[i] = new Record();
+            sequences.set(i, i);
+        }
+        Thread drain = new Thread(EventLog::drain, "event log");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    private EventLog() {
+        // static only
+    }
+
+    /**
+     * check if a level is logged, use to skip work before a log call
+     *
+     * @param level the level
+     * @return true if records of this level are logged
+     */
+    public static boolean isEnabled(int level) {
+        return level >= minLevel;
+    }
+
+    /**
+     * encode a double so it can be passed as a long argument to a {f}
+     * placeholder
+     *
+     * @param value the value
+     * @return the raw bits of the value
+     */
+    public static long f(double value) {
+        return Double.doubleToRawLongBits(value);
+    }
+
+    public static void log(int level, String template) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            publish(p, r, template);
+        }
+    }
+
+    public static void log(int level, String template, long a) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            r.args[0] = a;
+            publish(p, r, template);
+        }
+    }
+
+    public static void log(int level, String template, long a, long b) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            r.args[0] = a;
+            r.args[1] = b;
+            publish(p, r, template);
+        }
+    }
+
+    public static void log(int level, String template, long a, long b, long c) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            r.args[0] = a;
+            r.args[1] = b;
+            r.args[2] = c;
+            publish(p, r, template);
+        }
+    }
+
+    public static void log(int level, String template, long a, long b, long c, long d) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            r.args[0] = a;
+            r.args[1] = b;
+            r.args[2] = c;
+            r.args[3] = d;
+            publish(p, r, template);
+        }
+    }
+
+    public static void log(int level, String template, Object o) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            r.object = o;
+            publish(p, r, template);
+        }
+    }
+
+    /**
+     * log a byte array, printed like Arrays.toString
+     *
+     * @param level the level
+     * @param template the template, {b} is replaced by the bytes
+     * @param data the bytes, at most 32 are copied
+     * @param length number of bytes
+     */
+    public static void logBytes(int level, String template, byte[] data, int length) {
+        long p = claim(level);
+        if (p >= 0) {
+            Record r = records[(int) p & MASK];
+            int n = Math.min(length, MAX_BYTES);
+            System.arraycopy(data, 0, r.bytes, 0, n);
+            r.byteCount = n;
+            publish(p, r, template);
+        }
+    }
+
+    public static void debug(String template) {
+        log(DEBUG, template);
+    }
+
+    public static void info(String template) {
+        log(INFO, template);
+    }
+
+    public static void warn(String template) {
+        log(WARN, template);
+    }
+
+    /**
+     * number of records dropped because the ring was full
+     *
+     * @return dropped records
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * claim the next free record, multi producer
+     *
+     * @return position of the record, or -1 if the level is off or the ring
+     * is full
+     */
+    private static long claim(int level) {
+        if (level < minLevel) {
+            return -1;
+        }
+        while (true) {
+            long position = tail.get();
+            int index = (int) position & MASK;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    Record r = records[index];
+                    r.level = level;
+                    r.time = System.nanoTime();
+                    r.byteCount = 0;
+                    r.object = null;
+                    return position;
+                }
+            } else if (difference < 0) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+        }
+    }
+
+    /**
+     * hand a filled record to the drain thread
+     */
+    private static void publish(long position, Record r, String template) {
+        r.template = template;
+        sequences.lazySet((int) position & MASK, position + 1);
+    }
+
+    /**
+     * background loop, formats and prints records
+     */
+    private static void drain() {
+        PrintStream out = System.out;
+        StringBuilder line = new StringBuilder(256);
+        while (true) {
+            int index = (int) head & MASK;
+            if (sequences.get(index) != head + 1) {
+                out.flush();
+                LockSupport.parkNanos(IDLE_PARK);
+                continue;
+            }
+            Record r = records[index];
+            line.setLength(0);
+            format(r, line);
+            out.println(line);
+
+            r.object = null;
+            sequences.lazySet(index, head + CAPACITY);
+            head++;
+        }
+    }
+
+    /**
+     * build the text of a record
+     */
+    private static void format(Record r, StringBuilder line) {
+        long micros = (r.time - startTime) / 1000;
+        line.append(micros / 1000000).append('.');
+        long fraction = micros % 1000000;
+        for (long d = 100000; d > 1 && fraction < d; d /= 10) {
+            line.append('0');
+        }
+        line.append(fraction).append(' ').append(LEVEL_NAMES[Math.min(r.level, WARN)]).append(' ');
+
+        String t = r.template;
+        int arg = 0;
+        int i = 0;
+        while (i < t.length()) {
+            char c = t.charAt(i);
+            if (c == '{' && i + 1 < t.length()) {
+                char n = t.charAt(i + 1);
+                if (n == '}' && arg < MAX_ARGS) {
+                    line.append(r.args[arg++]);
+                    i += 2;
+                    continue;
+                }
+                if (i + 2 < t.length() && t.charAt(i + 2) == '}') {
+                    if (n == 'f' && arg < MAX_ARGS) {
+                        line.append(Double.longBitsToDouble(r.args[arg++]));
+                        i += 3;
+                        continue;
+                    } else if (n == 'o') {
+                        line.append(r.object);
+                        i += 3;
+                        continue;
+                    } else if (n == 'b') {
+                        line.append('[');
+                        for (int b = 0; b < r.byteCount; b++) {
+                            if (b > 0) {
+                                line.append(", ");
+                            }
+                            line.append(r.bytes[b]);
+                        }
+                        line.append(']');
+                        i += 3;
+                        continue;
+                    }
+                }
+            }
+            line.append(c);
+            i++;
+        }
+    }
+
+    /**
+     * parse a level name
+     */
+    private static int parseLevel(String name) {
+        switch (name.toLowerCase()) {
+            case "debug":
+                return DEBUG;
+            case "warn":
+                return WARN;
+            case "off":
+                return OFF;
+            default:
+                return INFO;
+        }
+    }
+}
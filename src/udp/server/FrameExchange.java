@@ -0,0 +1,157 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.opencv.core.Mat;
+
+/**
+ * FrameExchange class. lock-free triple buffer that hands camera frames from
+ * one producer (CameraCapture) to one consumer (ObjectTracker) without copying
+ * the pixels.
+ *
+ * the producer writes into the back buffer and publishes it, which swaps it
+ * with the middle buffer. the consumer swaps its front buffer with the middle
+ * buffer when a new frame is published. the consumer always gets the newest
+ * frame, sees each frame once, and never sees a frame that is being written.
+ *
+ * published frames are read only. the producer may still read the frame it
+ * just published (to encode it for the GUI) while the consumer reads it
+ */
+public class FrameExchange {
+
+    private static final int INDEX = 3;
+    private static final int FRESH = 4;
+
+    private final Mat[] buffers;
+    private final long[] sequences;
+    private final long[] captureTimes;
+
+    // index of the middle buffer, FRESH set if it holds an unread frame
+    private final AtomicInteger middle;
+    private final AtomicLong framesSkipped;
+    private volatile Thread waiting;
+
+    // owned by the producer
+    private int back;
+    private long nextSequence;
+
+    // owned by the consumer
+    private int front;
+
+    public FrameExchange() {
+        this.buffers = new Mat[]{new Mat(), new Mat(), new Mat()};
+        this.sequences = new long[3];
+        this.captureTimes = new long[3];
+        this.middle = new AtomicInteger(1);
+        this.framesSkipped = new AtomicLong();
+        this.front = 0;
+        this.back = 2;
+    }
+
+    //*****************************************************************
+    //********************** PRODUCER *********************************
+    /**
+     * the buffer the producer writes the next frame into
+     *
+     * @return the back buffer
+     */
+    public Mat getBackBuffer() {
+        return buffers[back];
+    }
+
+    /**
+     * publish the back buffer as the newest frame
+     *
+     * @param captureNanos capture time of the frame from System.nanoTime()
+     * @return the published frame, read only from now on
+     */
+    public Mat publish(long captureNanos) {
+        int published = back;
+        sequences[published] = ++nextSequence;
+        captureTimes[published] = captureNanos;
+
+        int old = middle.getAndSet(published | FRESH);
+        if ((old & FRESH) != 0) {
+            // the consumer never saw the frame in the middle buffer
+            framesSkipped.incrementAndGet();
+        }
+        back = old & INDEX;
+
+        Thread consumer = waiting;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return buffers[published];
+    }
+
+    //*****************************************************************
+    //********************** CONSUMER *********************************
+    /**
+     * wait for a frame the consumer has not seen and make it the front
+     * buffer
+     *
+     * @param timeoutNanos max time to wait
+     * @return true if a new frame is in the front buffer
+     */
+    public boolean acquire(long timeoutNanos) {
+        if ((middle.get() & FRESH) == 0) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            waiting = Thread.currentThread();
+            while ((middle.get() & FRESH) == 0) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    waiting = null;
+                    return false;
+                }
+                LockSupport.parkNanos(this, left);
+            }
+            waiting = null;
+        }
+        int old = middle.getAndSet(front);
+        front = old & INDEX;
+        return true;
+    }
+
+    /**
+     * the newest frame acquired by the consumer, read only
+     *
+     * @return the front buffer
+     */
+    public Mat getFrontBuffer() {
+        return buffers[front];
+    }
+
+    /**
+     * sequence number of the front buffer, starts at 1 and increases by one
+     * for every published frame
+     *
+     * @return the sequence number
+     */
+    public long getFrontSequence() {
+        return sequences[front];
+    }
+
+    /**
+     * capture time of the front buffer
+     *
+     * @return time from System.nanoTime()
+     */
+    public long getFrontCaptureTime() {
+        return captureTimes[front];
+    }
+
+    /**
+     * number of frames overwritten before the consumer got them
+     *
+     * @return skipped frames
+     */
+    public long getFramesSkipped() {
+        return framesSkipped.get();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.Size;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * JpegEncoder class. encodes a camera frame to JPEG straight from the Mat, in
+ * one codec pass, into a buffer that is reused for every frame
+ */
+public class JpegEncoder {
+
+    private final MatOfByte encoded;
+    private final Mat scaled;
+    private final Size scaledSize;
+    private MatOfInt params;
+    private int quality = -1;
+    private byte[] buffer;
+    private int length;
+
+    public JpegEncoder() {
+        this.encoded = new MatOfByte();
+        this.scaled = new Mat();
+        this.scaledSize = new Size();
+        this.buffer = new byte[64 * 1024];
+    }
+
+    /**
+     * encode a frame
+     *
+     * @param frame the frame to encode, not changed
+     * @param quality JPEG quality in percent
+     * @param scale scale of the encoded image, 1.0 is full size
+     * @return number of bytes in getBuffer(), 0 if encoding failed
+     */
+    public int encode(Mat frame, int quality, double scale) {
+        if (quality != this.quality) {
+            if (params != null) {
+                params.release();
+            }
+            params = new MatOfInt(Highgui.IMWRITE_JPEG_QUALITY, quality);
+            this.quality = quality;
+        }
+
+        Mat source = frame;
+        if (scale < 1.0) {
+            scaledSize.width = Math.max(1, (int) (frame.cols() * scale));
+            scaledSize.height = Math.max(1, (int) (frame.rows() * scale));
+            Imgproc.resize(frame, scaled, scaledSize, 0, 0, Imgproc.INTER_AREA);
+            source = scaled;
+        }
+
+        if (!Highgui.imencode(".jpg", source, encoded, params)) {
+            length = 0;
+            return 0;
+        }
+        length = (int) encoded.total();
+        if (buffer.length < length) {
+            buffer = new byte[length + length / 4];
+        }
+        encoded.get(0, 0, buffer);
+        return length;
+    }
+
+    /**
+     * the encoded frame, valid until the next call to encode. only the first
+     * getLength() bytes are used
+     *
+     * @return the buffer
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * length of the last encoded frame
+     *
+     * @return number of bytes
+     */
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyTracer class. follows a request code from the GUI through the server
+ * and the Arduino and back, and records the time of every hop:
+ *
+ * GUI_TO_SERVER: delay of the control frame compared to the fastest recent
+ * frame. SERVER_QUEUE: UDP receive until the Controller has handled it.
+ * CONTROLLER_TO_SERIAL: Controller until the frame is written to the serial
+ * port. ARDUINO: serial write until the Arduino echoes the request code.
+ * ECHO_TO_GUI: echo from the Arduino until the echo is sent to the GUI.
+ * END_TO_END: UDP receive until the echo is sent to the GUI, see echoSent.
+ *
+ * timestamps are kept per request code, so tracing never allocates.
+ *
+ * it also follows camera frames to the motors, from the capture time of the
+ * frame a motor command is based on:
+ *
+ * CAPTURE_TO_TARGET: capture until the tracker has handed the target to the
+ * DataHandler. TARGET_TO_COMMAND: until the AutoModeScheduler has made a
+ * motor command from it. COMMAND_TO_SERIAL: until the SerialWriter has
+ * written and flushed the command. CAPTURE_TO_SERIAL: the whole way. these
+ * are rolling histograms over the last ten seconds
+ */
+public class LatencyTracer {
+
+    /**
+     * the measured hops
+     */
+    public static enum Hop {
+        GUI_TO_SERVER,
+        SERVER_QUEUE,
+        CONTROLLER_TO_SERIAL,
+        ARDUINO,
+        ECHO_TO_GUI,
+        END_TO_END;
+    }
+
+    /**
+     * the measured hops of a camera frame
+     */
+    public static enum VisionHop {
+        CAPTURE_TO_TARGET,
+        TARGET_TO_COMMAND,
+        COMMAND_TO_SERIAL,
+        CAPTURE_TO_SERIAL;
+    }
+
+    /**
+     * receives request codes echoed by the Arduino
+     */
+    public static interface EchoListener {
+
+        /**
+         * called from the serial reader thread when a traced request code is
+         * echoed by the Arduino
+         *
+         * @param requestCode the echoed request code
+         * @param guiSentMillis GUI send time of the control frame, 0 if unknown
+         * @param receivedAt UDP receive time of the control frame
+         * @param echoedAt time of the echo from the Arduino
+         */
+        void echoed(byte requestCode, int guiSentMillis, long receivedAt, long echoedAt);
+    }
+
+    private static final int CODES = 256;
+
+    private final AtomicLongArray received;
+    private final AtomicLongArray handled;
+    private final AtomicLongArray written;
+    private final AtomicLongArray guiSent;
+    private final LatencyHistogram[] histograms;
+    private final RollingLatencyHistogram[] visionHistograms;
+    private volatile EchoListener listener;
+
+    /**
+     * create a new LatencyTracer
+     */
+    public LatencyTracer() {
+        this.received = new AtomicLongArray(CODES);
+        this.handled = new AtomicLongArray(CODES);
+        this.written = new AtomicLongArray(CODES);
+        this.guiSent = new AtomicLongArray(CODES);
+        this.histograms = new LatencyHistogram[Hop.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        this.visionHistograms = new RollingLatencyHistogram[VisionHop.values().length];
+        for (int i = 0; i < visionHistograms.length; i++) {
+            visionHistograms[i] = new RollingLatencyHistogram(10, 1000000000L);
+        }
+    }
+
+    /**
+     * set the receiver of echoes
+     *
+     * @param listener the listener, null to remove
+     */
+    public void setEchoListener(EchoListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * a new request code is received from the GUI
+     *
+     * @param requestCode the request code
+     * @param receivedAt UDP receive time from System.nanoTime()
+     * @param guiSentMillis GUI send time, 0 if the frame had none
+     * @param guiDelayMillis delay compared to the fastest recent frame, -1 if
+     * unknown
+     */
+    public void receivedFromGui(byte requestCode, long receivedAt, int guiSentMillis, long guiDelayMillis) {
+        int i = requestCode & 0xFF;
+        handled.set(i, 0);
+        written.set(i, 0);
+        guiSent.set(i, guiSentMillis);
+        received.set(i, receivedAt);
+        if (guiDelayMillis >= 0) {
+            histograms[Hop.GUI_TO_SERVER.ordinal()].record(guiDelayMillis * 1000000L);
+        }
+    }
+
+    /**
+     * the Controller has handed the request code to the Arduino data
+     *
+     * @param requestCode the request code
+     */
+    public void handledByController(byte requestCode) {
+        int i = requestCode & 0xFF;
+        long start = received.get(i);
+        if (start != 0 && handled.get(i) == 0) {
+            long now = System.nanoTime();
+            handled.set(i, now);
+            histograms[Hop.SERVER_QUEUE.ordinal()].record(now - start);
+        }
+    }
+
+    /**
+     * a frame with the request code is written to the serial port
+     *
+     * @param requestCode the request code
+     */
+    public void writtenToSerial(byte requestCode) {
+        int i = requestCode & 0xFF;
+        long start = handled.get(i);
+        if (start != 0 && written.get(i) == 0) {
+            long now = System.nanoTime();
+            written.set(i, now);
+            histograms[Hop.CONTROLLER_TO_SERIAL.ordinal()].record(now - start);
+        }
+    }
+
+    /**
+     * the Arduino has echoed the request code
+     *
+     * @param requestCode the request code
+     */
+    public void echoedByArduino(byte requestCode) {
+        int i = requestCode & 0xFF;
+        long start = written.get(i);
+        long receivedAt = received.get(i);
+        if (start == 0 || receivedAt == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        histograms[Hop.ARDUINO.ordinal()].record(now - start);
+
+        // trace each code only once
+        received.set(i, 0);
+        written.set(i, 0);
+        handled.set(i, 0);
+
+        EchoListener l = listener;
+        if (l != null) {
+            l.echoed(requestCode, (int) guiSent.get(i), receivedAt, now);
+        }
+    }
+
+    /**
+     * the echo of a request code has been sent to the GUI
+     *
+     * @param receivedAt UDP receive time of the control frame
+     * @param echoedAt time of the echo from the Arduino
+     */
+    public void echoSent(long receivedAt, long echoedAt) {
+        long now = System.nanoTime();
+        histograms[Hop.ECHO_TO_GUI.ordinal()].record(now - echoedAt);
+        histograms[Hop.END_TO_END.ordinal()].record(now - receivedAt);
+    }
+
+    /**
+     * the tracker has handed the target of a frame to the DataHandler
+     *
+     * @param captureTime capture time of the frame
+     */
+    public void visionTarget(long captureTime) {
+        visionHistograms[VisionHop.CAPTURE_TO_TARGET.ordinal()].recordSince(captureTime);
+    }
+
+    /**
+     * the scheduler has made a motor command from a target
+     *
+     * @param targetTime time the target was handed to the DataHandler
+     */
+    public void visionCommand(long targetTime) {
+        visionHistograms[VisionHop.TARGET_TO_COMMAND.ordinal()].recordSince(targetTime);
+    }
+
+    /**
+     * a motor command based on a camera frame is written to the serial port
+     *
+     * @param captureTime capture time of the frame
+     * @param commandTime time the command was made
+     */
+    public void visionWritten(long captureTime, long commandTime) {
+        long now = System.nanoTime();
+        visionHistograms[VisionHop.COMMAND_TO_SERIAL.ordinal()].record(now - commandTime);
+        visionHistograms[VisionHop.CAPTURE_TO_SERIAL.ordinal()].record(now - captureTime);
+    }
+
+    /**
+     * get the histogram of one hop of camera frames, over the last ten
+     * seconds. the histogram is reused by the next call
+     *
+     * @param hop the hop
+     * @return the histogram
+     */
+    public LatencyHistogram getVisionHistogram(VisionHop hop) {
+        return visionHistograms[hop.ordinal()].getSnapshot();
+    }
+
+    /**
+     * get the histogram of one hop
+     *
+     * @param hop the hop
+     * @return the histogram
+     */
+    public LatencyHistogram getHistogram(Hop hop) {
+        return histograms[hop.ordinal()];
+    }
+}
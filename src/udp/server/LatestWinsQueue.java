@@ -0,0 +1,100 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * LatestWinsQueue class. bounded hand-off with room for one item between two
+ * pipeline stages. when the producer is faster than the consumer the item
+ * waiting in the queue is replaced by the newer one, so the consumer always
+ * works on the newest item and the queue never grows.
+ *
+ * one producer and one consumer. the replaced item is given back to the
+ * producer so it can be reused
+ *
+ * @param <T> type of the items
+ */
+public class LatestWinsQueue<T> {
+
+    private final AtomicReference<T> slot;
+    private final AtomicLong offered;
+    private final AtomicLong replaced;
+    private volatile Thread waiting;
+
+    public LatestWinsQueue() {
+        this.slot = new AtomicReference<>();
+        this.offered = new AtomicLong();
+        this.replaced = new AtomicLong();
+    }
+
+    /**
+     * put an item in the queue, replacing the item the consumer has not
+     * taken yet
+     *
+     * @param item the item
+     * @return the replaced item, null if the queue was empty
+     */
+    public T offer(T item) {
+        offered.incrementAndGet();
+        T old = slot.getAndSet(item);
+        if (old != null) {
+            replaced.incrementAndGet();
+        }
+        Thread consumer = waiting;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return old;
+    }
+
+    /**
+     * take the item from the queue, waiting for one if it is empty
+     *
+     * @param timeoutNanos max time to wait
+     * @return the item, null if the time ran out
+     */
+    public T take(long timeoutNanos) {
+        T item = slot.getAndSet(null);
+        if (item != null) {
+            return item;
+        }
+        long deadline = System.nanoTime() + timeoutNanos;
+        waiting = Thread.currentThread();
+        try {
+            while ((item = slot.getAndSet(null)) == null) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, left);
+            }
+            return item;
+        } finally {
+            waiting = null;
+        }
+    }
+
+    /**
+     * number of items put in the queue
+     *
+     * @return items offered
+     */
+    public long getOffered() {
+        return offered.get();
+    }
+
+    /**
+     * number of items replaced before the consumer took them
+     *
+     * @return items replaced
+     */
+    public long getReplaced() {
+        return replaced.get();
+    }
+}
@@ -235,7 +235,7 @@ public class Logic {
                 dh.setRightMotorSpeed(maxSpeed);
                 break;
             case GOFWDANDLEFT:
-                System.out.println("fwd and left");
+                EventLog.debug("fwd and left");
                 dh.setLeftMotorSpeed(maxSpeed);
                 dh.setRightMotorSpeed(maxSpeed/4);
                 break;
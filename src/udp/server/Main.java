@@ -5,6 +5,7 @@
  */
 package udp.server;
 
+import java.util.Timer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.Semaphore;
@@ -22,10 +23,23 @@ public class Main {
     private static Thread server;
     private static Semaphore semaphore;
     private static Thread tracker; // Testing
-    static SendEventState enumStateEvent;
-    protected static String ipAdress;
+    private static SubscriberRegistry subscribers;
+    private static VideoQualityGovernor videoGovernor;
+    // video budget of the link and max time to send one frame
+    private static final int videoMaxRate = Integer.getInteger("video.maxrate", 1000); // kB/s
+    private static final int videoMaxSendTime = Integer.getInteger("video.maxsendtime", 20); // ms
+    private static UDPServer udpServer;
+    private static Timer telemetry;
+    // push telemetry to the GUI, e.g. -Dtelemetry.rate=100. 0 turns it off. the timer
+    // runs in whole ms, so the rate is 1000 / round(1000 / rate), the samples carry their time
+    private static final int telemetryRate = Integer.getInteger("telemetry.rate", 0); // Hz
+    private static final int telemetrySamples = Integer.getInteger("telemetry.samples", 5);
     private static CameraCapture camera;
     private static String[] comport = {"/dev/ttyUSB0", "COM3","/dev/ttyACM0","/dev/ttyACM1","/dev/ttyACM2","/dev/ttyACM99"};
+    // the link to the arduino, -Dserial.transport=rxtx|pty|emulator and e.g. -Dserial.port=/dev/pts/3.
+    // emulator runs without the car, see ArduinoEmulator
+    private static final String serialTransport = System.getProperty("serial.transport", "rxtx");
+    private static final String serialPort = System.getProperty("serial.port", comport[2]);
     
 
     /**
@@ -41,23 +55,62 @@ public class Main {
         
         controller = new Thread(new Controller(dh, semaphore));
 
-        camera = new CameraCapture();
+        subscribers = new SubscriberRegistry(9877, 8765, 5000);
+
+        videoGovernor = new VideoQualityGovernor(videoMaxRate * 1000.0, videoMaxSendTime);
+
+        camera = new CameraCapture(subscribers, videoGovernor);
         tracker = new Thread(new ObjectTracker(dh,semaphore,camera));
 
-        server = new Thread(new UDPServer(semaphore,dh));
+        udpServer = new UDPServer(semaphore,dh,subscribers,videoGovernor);
+        server = new Thread(udpServer);
 
         
         controller.start();
         server.start();
         camera.start();
         tracker.start();
+
+        if (telemetryRate > 0) {
+            telemetry = new Timer("telemetry", true);
+            long telemetryPeriod = Math.max(1, Math.round(1000.0 / telemetryRate)); // ms
+            EventLog.log(EventLog.INFO, "TELEMETRY every {} ms ({f} Hz)", telemetryPeriod, EventLog.f(1000.0 / telemetryPeriod));
+            telemetry.scheduleAtFixedRate(new TelemetryStreamer(dh, semaphore, udpServer, subscribers, telemetrySamples),
+                    0, telemetryPeriod);
+        }
         
-        SerialComArduino sca = new SerialComArduino(dh);
+        SerialComArduino sca = new SerialComArduino(dh, createSerialTransport());
         try {
-            sca.connect(comport[2], semaphore);
+            sca.connect(serialPort, semaphore);
         } catch (Exception ex) {
             Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
         }
     }
-    
+
+    /**
+     * the serial transport selected with serial.transport
+     * @return the transport
+     */
+    private static SerialTransport createSerialTransport() {
+        switch (serialTransport) {
+            case "pty":
+                return new PtySerialTransport();
+            case "emulator":
+                PipeSerialTransport pipe = new PipeSerialTransport();
+                ArduinoEmulator emulator;
+                try {
+                    emulator = ArduinoEmulator.create(pipe.getDeviceInputStream(), pipe.getDeviceOutputStream());
+                } catch (IllegalArgumentException ex) {
+                    EventLog.log(EventLog.WARN, "BAD EMULATOR SCENARIO, USING PHYSICS: {o}", ex.getMessage());
+                    emulator = ArduinoEmulator.create(pipe.getDeviceInputStream(), pipe.getDeviceOutputStream(), "physics");
+                }
+                emulator.start();
+                return pipe;
+            case "rxtx":
+                return new RxtxSerialTransport();
+            default:
+                EventLog.log(EventLog.WARN, "UNKNOWN SERIAL TRANSPORT {o}, USING RXTX", serialTransport);
+                return new RxtxSerialTransport();
+        }
+    }
 }
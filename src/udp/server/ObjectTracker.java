@@ -6,16 +6,16 @@
 package udp.server;
 
 import java.awt.AWTException;
-import java.awt.Graphics;
-//import java.awt.Panel;
-import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.JFrame;
-import javax.swing.JPanel;
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
@@ -25,237 +25,545 @@ import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.highgui.VideoCapture;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.imgproc.Moments;
 
 
 /**
+ * tracks a coloured target in the camera frames. the work is split in three
+ * stages on their own threads so they can run on different cores:
+ * preprocessing (brightness, blur, HSV), segmentation (colour range, erode,
+ * dilate, distance mask) and blob analysis (circles, contours, target angle).
+ * the stages hand VisionFrames to each other through LatestWinsQueues, so a
+ * slow stage makes the stage before it drop frames instead of queueing them
  *
  * @author mgrib
  */
 public class ObjectTracker implements Runnable {
-    
+
+    static final int PREPROCESS = 0;
+    static final int SEGMENT = 1;
+    static final int ANALYZE = 2;
+    private static final String[] STAGE_NAMES = {"preprocess", "segment", "analyze"};
+
     private DataHandler dh;
     private Semaphore semaphore;
     private CameraCapture camCap;
-    
+    private FrameExchange exchange;
+    private final long frameTimeout = 100000000L; // ns
+
+    // frames in use: one per stage and one per queue, plus one spare
+    private final int frameCount = 6;
+    private VisionFrame[] frames;
+    private ArrayBlockingQueue<VisionFrame> free;
+    private LatestWinsQueue<VisionFrame> preprocessed;
+    private LatestWinsQueue<VisionFrame> segmented;
+    private VisionGraph graph;
+    private final AtomicLong framesWithoutBuffer = new AtomicLong();
+
+    // part of the frame the tracker looks at, and frames processed per mode
+    private TrackingWindow trackingWindow;
+    private final Size windowSize = new Size();
+    private final Point windowCenter = new Point();
+    private final long[] modeFrames = new long[3];
+
+    // time each stage works on a frame, and time from capture until the
+    // stage is done with it, over the last minute. the stage threads record
+    // while the report reads snapshots, nothing is reset
+    private RollingLatencyHistogram[] stageTime;
+    private RollingLatencyHistogram[] stageLatency;
+
     private VideoCapture capture;
 
-    private Mat webcam_image;
-    private Mat hsv_image; 
-    private Mat thresholded;
-    private Mat thresholded2;
-    private double[] data;
+    // all Mats are created once and reused for every frame, OpenCV only
+    // reallocates them if the camera resolution changes. the images of a
+    // frame are in its VisionFrame, these are the stages' own work Mats
+    private Mat hierarchy;
+    private byte[] data;
     private Mat circles;
     private double[] hsv_values;
-    
-    private Scalar hsv_min;
-    private Scalar hsv_max;
-    
-    private List<Mat> lhsv;
-    private Mat array255;
+
+    // the range is replaced as a whole, the segment thread reads the field
+    // once per frame
+    private volatile ColorRange colorRange;
+
+    private Mat saturation;
+    private Mat value;
+    private Mat saturationF;
+    private Mat valueF;
     private Mat distance;
+    private Mat[] pool;
+
+    // kernels and sizes used by the filters, created once
+    private final Size blurSize = new Size(7, 7);
+    private final Size gaussianSize = new Size(9, 9);
+    private Mat erodeKernel;
+    private Mat dilateKernel;
+    private final Scalar distanceMin = new Scalar(0.0);
+    private final Scalar distanceMax = new Scalar(200.0);
+
+    // drawing, reused
+    private final Point targetPoint = new Point();
+    private final Point centerPoint = new Point();
+    private final Scalar circleColor = new Scalar(50,49,0,255);
+    private final Scalar lineColor = new Scalar(150,150,100);
                                //Blåball //Flaske
-    private int hueMin = 29;//104; //40;//35; 
+    private int hueMin = 29;//104; //40;//35;
     private int hueMax = 38;//115; //68;//74;
     private int satMin = 66;//185;//51;//93;
     private int satMax = 195;//255;//255;//223;
     private int valMin = 71;//36;//38;//74;
     private int valMax = 255;//100;//167;//14335;
-    
+
     // Flaske Hue[40 68] Sat[51 255] Val[38 167]
     // Blåball Hue[104 115] Sat[185 255] Val[36 100] Fungerer ikke
     // Tennisball Hue[29 38] Sat[66 195] Val[71 255]
-    
-    
+
+    // segment with cvtColor and inRange, -Dtracker.segmentation=lut uses a
+    // BGR lookup table instead. stays opt-in until it is measured on the car
+    private final boolean lookupSegmentation = "lut".equals(System.getProperty("tracker.segmentation", "hsv"));
+    private ColorLookupTable lookupTable;
+    // the mask stage fills both masks in one pass over the lookup table
+    private boolean lookupBothMasks;
+    private ColorRange tableRange;
+
+
     private double brightness;
     private double contrast;
-    
+
     private float angleErrorX;
     private float angleErrorY;
-    
+
+    // centre and radius of the target in the camera frame
+    private boolean targetFound;
+    private int targetX;
+    private int targetY;
+    private double targetRadius;
+    private double targetConfidence;
+
+    // ranks the contours, Hough circles raise the confidence with -Dtracker.hough=true
+    private final boolean houghBoost = Boolean.getBoolean("tracker.hough");
+    private BlobAnalyzer blobs;
+
     List<MatOfPoint> contours;
-    
+
+    // native memory accounting
+    private final long memoryReportInterval = 60000000000L; // ns
+    private long lastMemoryReport;
+    private long poolBytesAtStart = -1;
+    private long framesProcessed;
+
     public ObjectTracker(DataHandler dh, Semaphore semaphore, CameraCapture camCap){
         this.dh = dh;
         this.semaphore = semaphore;
         this.camCap = camCap;
-        
-        //System.loadLibrary(Core.NATIVE_LIBRARY_NAME); 
-        try{ 
+        this.exchange = camCap.getFrameExchange();
+
+        //System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        try{
             createMat();
             createFrames();
             setColorTrackingValues();
             //trackColors();
-            
+
         }
         catch(AWTException e){
             e.printStackTrace();
         }
     }
-    
-    
+
+
     @Override
     public void run() {
         this.trackColors();
     }
-    
-    
-    
-    
+
+
+
+
     private void createFrames() throws AWTException {
-                
-                //capture = new VideoCapture(1); 
+
+                //capture = new VideoCapture(1);
 
                 //capture.set(3, 1280); //capture.set(3, 1366); // 500
 		//capture.set(4, 720); //capture.set(4, 768); // 400
 		//capture.set(15, -3);
-		
-                //capture.read(webcam_image);  
-                webcam_image = this.camCap.getFrame();
-                array255 = new Mat(480,640,CvType.CV_8UC1);
-		//array255 = new Mat(webcam_image.height(),webcam_image.width(),CvType.CV_8UC1);  
-		array255.setTo(new Scalar(255));  
 
-                distance=new Mat(480,640,CvType.CV_8UC1);
-                //distance=new Mat(webcam_image.height(),webcam_image.width(),CvType.CV_8UC1);  
-                lhsv = new ArrayList<>(3);      
-		circles = new Mat();
+                //capture.read(webcam_image);
+                erodeKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(8, 8));
+                dilateKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(8, 8));
+
+                distance = new Mat(480,640,CvType.CV_32FC1);
+                //distance=new Mat(webcam_image.height(),webcam_image.width(),CvType.CV_8UC1);
+
+                pool = new Mat[]{hierarchy, circles,
+                    saturation, value, saturationF, valueF, distance, erodeKernel, dilateKernel};
+
+                frames = new VisionFrame[frameCount];
+                free = new ArrayBlockingQueue<>(frameCount);
+                for (int i = 0; i < frameCount; i++) {
+                    frames[i] = new VisionFrame();
+                    free.add(frames[i]);
+                }
+                lookupTable = new ColorLookupTable(distanceMax.val[0]);
+                createGraph();
+                trackingWindow = new TrackingWindow(160, 120);
+                preprocessed = new LatestWinsQueue<>();
+                segmented = new LatestWinsQueue<>();
+
+                stageTime = new RollingLatencyHistogram[STAGE_NAMES.length];
+                stageLatency = new RollingLatencyHistogram[STAGE_NAMES.length];
+                for (int i = 0; i < STAGE_NAMES.length; i++) {
+                    stageTime[i] = new RollingLatencyHistogram(6, memoryReportInterval / 6);
+                    stageLatency[i] = new RollingLatencyHistogram(6, memoryReportInterval / 6);
+                }
     }
 
+    /*
+    * the stages of the tracker in the order they run. only the stages that
+    * lead to the target angle run, see VisionGraph. -Dtracker.disable and
+    * -Dtracker.keep take comma separated stage names
+    */
+    private void createGraph() {
+                int segmentationInput = lookupSegmentation ? VisionGraph.IMAGE : VisionGraph.HSV;
+
+                graph = new VisionGraph();
+                graph.add("window", PREPROCESS, 0, VisionGraph.IMAGE, this::cutWindow);
+                graph.add("blur", PREPROCESS, VisionGraph.IMAGE, VisionGraph.IMAGE, this::blurImage);
+                graph.add("hsv", PREPROCESS, VisionGraph.IMAGE, VisionGraph.HSV, this::convertToHsv);
+                graph.add("mask", SEGMENT, segmentationInput, VisionGraph.MASK, this::colorMask);
+                graph.add("morphology", SEGMENT, VisionGraph.MASK, VisionGraph.MASK, this::morphology);
+                graph.add("distance", SEGMENT, segmentationInput, VisionGraph.DISTANCE_MASK, this::distanceMask);
+                graph.add("mask blur", SEGMENT, VisionGraph.MASK, VisionGraph.MASK, this::blurMask);
+                // findContours changes the mask, everything else that reads it goes first
+                graph.add("circles", ANALYZE, VisionGraph.MASK, VisionGraph.CIRCLES, this::findCircles);
+                graph.add("contours", ANALYZE, VisionGraph.MASK, VisionGraph.CONTOURS, this::findContours);
+                graph.add("sample", ANALYZE, VisionGraph.IMAGE, VisionGraph.SAMPLE, this::samplePixel);
+                graph.add("target", ANALYZE, houghBoost ? VisionGraph.CONTOURS | VisionGraph.CIRCLES : VisionGraph.CONTOURS,
+                        VisionGraph.TARGET, this::updateTargetError);
+                graph.add("overlay", ANALYZE, VisionGraph.IMAGE | VisionGraph.TARGET, VisionGraph.OVERLAY, this::drawOverlay);
+
+                graph.configure(System.getProperty("tracker.disable"), System.getProperty("tracker.keep"));
+                graph.resolve(VisionGraph.TARGET);
+                lookupBothMasks = lookupSegmentation && graph.isLive("mask") && graph.isLive("distance");
+                EventLog.log(EventLog.INFO, "tracker stages {o}", graph.describe());
+                if(graph.getMissing() != 0) {
+                    EventLog.log(EventLog.WARN, "tracker: no stage makes the products {} the other stages need", graph.getMissing());
+                }
+    }
+
+    /*
+    * start the preprocessing and segmentation threads, blob analysis runs on
+    * the tracker thread
+    */
     private void trackColors() {
-               
+
+               Thread preprocessor = new Thread(this::preprocess, "vision preprocess");
+               Thread segmenter = new Thread(this::segment, "vision segment");
+               preprocessor.start();
+               segmenter.start();
+
+               this.analyze();
+    }
+
+    /*
+    * pipeline thread 1: take the newest camera frame and run the
+    * preprocessing stages on it
+    */
+    private void preprocess() {
+
                while(true)  {
-		    //capture.read(webcam_image);  
-                    //System.out.println(this.camCap.getFrame().size());
-                    webcam_image = this.camCap.getFrame().clone();
-	            if( !webcam_image.empty() ) { 
-                                    
-                                    
-                        //Adjusting brightness and contrast
-                        webcam_image.convertTo(webcam_image,-1, brightness, contrast);
-                                     
-                        //Adding blur to remove noise
-                        Imgproc.blur(webcam_image, webcam_image, new Size(7, 7));
-                                    
-                        // converting to HSV image
-                        Imgproc.cvtColor(webcam_image, hsv_image, Imgproc.COLOR_BGR2HSV);  
-                                    
-                        //Checking if the hsv image is in range.
-                        Core.inRange(hsv_image, hsv_min, hsv_max, thresholded);         
-                                    
-                        Imgproc.erode(thresholded, thresholded, Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(8,8)));
-			Imgproc.dilate(thresholded, thresholded, Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(8, 8)));
-                        Core.split(hsv_image, lhsv); // We get 3 2D one channel Mats  
-			Mat S = lhsv.get(1);  
-			Mat V = lhsv.get(2);  
-			Core.subtract(array255, S, S);  
-			Core.subtract(array255, V, V);  
-			S.convertTo(S, CvType.CV_32F);  
-			V.convertTo(V, CvType.CV_32F);  
-			Core.magnitude(S, V, distance);  
-			Core.inRange(distance,new Scalar(0.0), new Scalar(200.0), thresholded2);  
-                                        
-                        Imgproc.GaussianBlur(thresholded, thresholded, new Size(9,9),0,0);  
-			Imgproc.HoughCircles(thresholded, circles, Imgproc.CV_HOUGH_GRADIENT, 2, thresholded.height()/8, 200, 100, 0, 0);   
-			Imgproc.findContours(thresholded, contours, thresholded2, Imgproc.RETR_LIST,Imgproc.CHAIN_APPROX_SIMPLE);
-			//------Imgproc.drawContours(webcam_image, contours, -1, new Scalar(255, 0, 0), 2);   
-
-                        //------Core.circle(webcam_image, new Point(210,210), 10, new Scalar(100,10,10),3);  
-			data=webcam_image.get(210, 210);  
-			//------Core.putText(webcam_image,String.format("("+String.valueOf(data[0])+","+String.valueOf(data[1])+","+String.valueOf(data[2])+")"),new Point(30, 30) , 3 //FONT_HERSHEY_SCRIPT_SIMPLEX  
-			//------	,1.0,new Scalar(100,10,10,255),3); 
-                        //ArrayList<Float> errorAngles = new ArrayList<>();
-                        ArrayList<Float> errorAngles = getTargetError();
-                        
-                        if(errorAngles != null){
-                        
-                          try {
-                              semaphore.acquire();
-                          } catch (InterruptedException ex) {
-                              Logger.getLogger(ObjectTracker.class.getName()).log(Level.SEVERE, null, ex);
-                          }
-                          float eXa = (errorAngles.get(0));
-                          float eYa = (errorAngles.get(1));
-                          this.dh.setPixyXvalue(eXa);
-                          this.dh.setPixyYvalue(eYa);
-                          
-                          //System.out.print("AngleErrorX: "+errorAngles.get(0));
-                          //System.out.println("       AngleErrorY: "+ errorAngles.get(1));
-                          
-                          semaphore.release();
-                        
-                        }         
-                        }
-                                                
-                    /*else {
-				  
-			System.out.println(" --(!) No captured frame -- Break!"); 
-	            } */            
+		    //capture.read(webcam_image);
+                    // wait for a frame that has not been processed, always the newest one
+                    if(!exchange.acquire(frameTimeout)) {
+                        continue;
+                    }
+                    Mat frame = exchange.getFrontBuffer();
+	            if( frame.empty() ) {
+                        continue;
+                    }
+                    VisionFrame vf = free.poll();
+                    if(vf == null) {
+                        // every frame is in use, should not happen with frameCount frames
+                        framesWithoutBuffer.incrementAndGet();
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    vf.reset(exchange.getFrontSequence(), exchange.getFrontCaptureTime());
+                    vf.setSource(frame);
+
+                    graph.run(PREPROCESS, vf);
+
+                    vf.setSource(null);
+                    stageDone(PREPROCESS, vf, start);
+                    recycle(preprocessed.offer(vf));
+               }
+    }
+
+    /*
+    * pipeline thread 2: the segmentation stages
+    */
+    private void segment() {
+
+               while(true)  {
+                    VisionFrame vf = preprocessed.take(frameTimeout);
+                    if(vf == null) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+
+                    graph.run(SEGMENT, vf);
+
+                    stageDone(SEGMENT, vf, start);
+                    recycle(segmented.offer(vf));
+               }
+    }
+
+    /*
+    * pipeline thread 3: the blob analysis stages, then hand the angle to the
+    * DataHandler
+    */
+    private void analyze() {
+
+               lastMemoryReport = System.nanoTime();
+               while(true)  {
+                    VisionFrame vf = segmented.take(frameTimeout);
+                    if(vf == null) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+
+                    graph.run(ANALYZE, vf);
+                    releaseContours();
+
+                    // where to look in the next frames
+                    if(targetFound) {
+                        trackingWindow.found(targetX, targetY, targetRadius, vf.getSequence(), vf.getFrameWidth(), vf.getFrameHeight());
+                    }
+                    else {
+                        trackingWindow.lost(vf.getFrameWidth(), vf.getFrameHeight());
+                    }
+
+                    try {
+                        semaphore.acquire();
+                    } catch (InterruptedException ex) {
+                        Logger.getLogger(ObjectTracker.class.getName()).log(Level.SEVERE, null, ex);
+                    }
+                    this.dh.setTarget(angleErrorX, angleErrorY, targetFound, vf.getSequence(), vf.getCaptureTime());
+                    this.dh.getLatencyTracer().visionTarget(vf.getCaptureTime());
+
+                    //System.out.print("AngleErrorX: "+angleErrorX);
+                    //System.out.println("       AngleErrorY: "+ angleErrorY);
+
+                    semaphore.release();
+
+                    stageDone(ANALYZE, vf, start);
+                    recycle(vf);
+
+                    framesProcessed++;
+                    reportMemory();
                }
     }
 
+    //*****************************************************************
+    //********************** STAGES ***********************************
+
+    /*
+    * copy the tracking window (or the whole frame at half or full
+    * resolution) out of the camera frame and adjust brightness and contrast
+    */
+    private void cutWindow(VisionFrame vf) {
+        Mat frame = vf.getSource();
+        // the frame is shared and read only, the window is copied to the VisionFrame
+        Mat image = vf.getImage();
+        long window = trackingWindow.get();
+        int mode = TrackingWindow.getMode(window);
+        if(mode == TrackingWindow.WINDOW) {
+            int x = TrackingWindow.getX(window);
+            int y = TrackingWindow.getY(window);
+            windowSize.width = TrackingWindow.getWidth(window);
+            windowSize.height = TrackingWindow.getHeight(window);
+            // the centre is on whole pixels so nothing is interpolated
+            windowCenter.x = x + (windowSize.width - 1) * 0.5;
+            windowCenter.y = y + (windowSize.height - 1) * 0.5;
+            Imgproc.getRectSubPix(frame, windowSize, windowCenter, image);
+            vf.setRegion(x, y, 1, frame.cols(), frame.rows());
+        }
+        else if(mode == TrackingWindow.DOWNSCALED) {
+            Imgproc.pyrDown(frame, image);
+            vf.setRegion(0, 0, 2, frame.cols(), frame.rows());
+        }
+        modeFrames[mode]++;
+
+        //Adjusting brightness and contrast
+        if(mode == TrackingWindow.FULL) {
+            frame.convertTo(image,-1, brightness, contrast);
+            vf.setRegion(0, 0, 1, frame.cols(), frame.rows());
+        }
+        else {
+            image.convertTo(image,-1, brightness, contrast);
+        }
+    }
+
+    /*
+    * blur to remove noise
+    */
+    private void blurImage(VisionFrame vf) {
+        Imgproc.blur(vf.getImage(), vf.getImage(), blurSize);
+    }
+
+    private void convertToHsv(VisionFrame vf) {
+        Imgproc.cvtColor(vf.getImage(), vf.getHsv(), Imgproc.COLOR_BGR2HSV);
+    }
+
+    /*
+    * pixels in the colour range of the target, from the lookup table or
+    * from the HSV image
+    */
+    private void colorMask(VisionFrame vf) {
+        if(lookupSegmentation) {
+            ColorRange range = colorRange;
+            if(tableRange != range) {
+                tableRange = range;
+                lookupTable.setRange(range.getHueMin(), range.getHueMax(), range.getSatMin(), range.getSatMax(),
+                        range.getValMin(), range.getValMax());
+            }
+            lookupTable.apply(vf.getImage(), vf.getMask(), lookupBothMasks ? vf.getDistanceMask() : null);
+        }
+        else {
+            //Checking if the hsv image is in range.
+            ColorRange range = colorRange;
+            Core.inRange(vf.getHsv(), range.getMin(), range.getMax(), vf.getMask());
+        }
+    }
+
+    private void morphology(VisionFrame vf) {
+        Imgproc.erode(vf.getMask(), vf.getMask(), erodeKernel);
+        Imgproc.dilate(vf.getMask(), vf.getMask(), dilateKernel);
+    }
+
+    /*
+    * pixels where the magnitude of 255 - S and 255 - V is small
+    */
+    private void distanceMask(VisionFrame vf) {
+        if(lookupSegmentation) {
+            // already made by the mask stage when both run
+            if(!lookupBothMasks) {
+                lookupTable.apply(vf.getImage(), null, vf.getDistanceMask());
+            }
+            return;
+        }
+        // S and V into their own Mats, 255 - S and 255 - V in place
+        Core.extractChannel(vf.getHsv(), saturation, 1);
+        Core.extractChannel(vf.getHsv(), value, 2);
+        Core.bitwise_not(saturation, saturation);
+        Core.bitwise_not(value, value);
+        saturation.convertTo(saturationF, CvType.CV_32F);
+        value.convertTo(valueF, CvType.CV_32F);
+        Core.magnitude(saturationF, valueF, distance);
+        Core.inRange(distance, distanceMin, distanceMax, vf.getDistanceMask());
+    }
+
+    private void blurMask(VisionFrame vf) {
+        Imgproc.GaussianBlur(vf.getMask(), vf.getMask(), gaussianSize,0,0);
+    }
+
+    private void findCircles(VisionFrame vf) {
+        Mat thresholded = vf.getMask();
+        Imgproc.HoughCircles(thresholded, circles, Imgproc.CV_HOUGH_GRADIENT, 2, thresholded.height()/8, 200, 100, 0, 0);
+    }
+
+    private void findContours(VisionFrame vf) {
+        Imgproc.findContours(vf.getMask(), contours, hierarchy, Imgproc.RETR_LIST,Imgproc.CHAIN_APPROX_SIMPLE);
+        //------Imgproc.drawContours(webcam_image, contours, -1, new Scalar(255, 0, 0), 2);
+    }
+
+    /*
+    * colour of the pixel at (210, 210) of the camera frame, if it is in the
+    * window
+    */
+    private void samplePixel(VisionFrame vf) {
+        //------Core.circle(webcam_image, new Point(210,210), 10, new Scalar(100,10,10),3);
+        int sampleX = (210 - vf.getOffsetX()) / vf.getScale();
+        int sampleY = (210 - vf.getOffsetY()) / vf.getScale();
+        if(sampleX >= 0 && sampleY >= 0 && sampleX < vf.getImage().cols() && sampleY < vf.getImage().rows()) {
+            vf.getImage().get(sampleY, sampleX, data);
+        }
+        //------Core.putText(webcam_image,String.format("("+String.valueOf(data[0])+","+String.valueOf(data[1])+","+String.valueOf(data[2])+")"),new Point(30, 30) , 3 //FONT_HERSHEY_SCRIPT_SIMPLEX
+        //------	,1.0,new Scalar(100,10,10,255),3);
+    }
+
+    /*
+    * record the time a stage spent on a frame and the time since capture
+    */
+    private void stageDone(int stage, VisionFrame vf, long start) {
+        long now = System.nanoTime();
+        stageTime[stage].record(now - start);
+        stageLatency[stage].record(now - vf.getCaptureTime());
+    }
+
+    /*
+    * give a frame that is done, or was replaced in a queue, back to the
+    * preprocessing stage
+    */
+    private void recycle(VisionFrame vf) {
+        if(vf != null) {
+            free.offer(vf);
+        }
+    }
+
 
     private void createMat() {
-        webcam_image = new Mat();
-        hsv_image = new Mat();  
-        thresholded =new Mat();  
-        thresholded2 =new Mat(); 
-        data = new double[3]; 
+        hierarchy = new Mat();
+        data = new byte[3];
         circles = new Mat();
-        
-        lhsv = new ArrayList<>(3);  // new ArrayList<Mat>(3);  
-        
-        array255 = new Mat(webcam_image.height(),webcam_image.width(),CvType.CV_8UC1);  
-	array255.setTo(new Scalar(255));  
-        
-        distance = new Mat(webcam_image.height(),webcam_image.width(),CvType.CV_8UC1);
-        
-       hsv_min = new Scalar(1,1,1);
-       hsv_max = new Scalar(1,1,1);
-        
+
+        saturation = new Mat();
+        value = new Mat();
+        saturationF = new Mat();
+        valueF = new Mat();
+
        contours = new ArrayList<>(); // new ArrayList<MatOfPoint>();
+       blobs = new BlobAnalyzer(8, 30.0, 0.5, 0.25);
     }
 
 
 
-  
 
-    private ArrayList<Float> getTargetError() {
-        ArrayList<Float> angles = null;
-        
-        int x = getX(contours);
-	int y = getY(contours);
-        contours.clear();
-        angles = new ArrayList<>();                                         
-        if(x>0){              
-                                               
-        Core.circle(webcam_image, new Point(x, y), 4, new Scalar(50,49,0,255), 4);
-
-        float centerX = webcam_image.width() / 2;
-        float centerY = webcam_image.height() / 2;
-                                                  
-                                                  
-        // CenterCirle
-        Core.circle(webcam_image, new Point(centerX, centerY), 4, new Scalar(50,49,0,255), 4);
-                                                  
+
+    /*
+    * angle from the camera centre to the target, +-255 when no target is
+    * found. the result is left in angleErrorX and angleErrorY
+    */
+    private void updateTargetError(VisionFrame vf) {
+
+        // the best candidate is the target
+        blobs.analyze(contours, houghBoost ? circles : null, vf.getOffsetX(), vf.getOffsetY(), vf.getScale());
+        targetFound = blobs.getCount() > 0;
+        if(targetFound) {
+            targetX = (int) blobs.getX()[0];
+            targetY = (int) blobs.getY()[0];
+            targetRadius = blobs.getRadius()[0];
+            targetConfidence = blobs.getConfidence()[0];
+        }
+        int x = targetX;
+        int y = targetY;
+        if(targetFound){
+
+        float centerX = vf.getFrameWidth() / 2;
+        float centerY = vf.getFrameHeight() / 2;
+
         // Setup camera angles (from producer)
         float cameraAngleX = 60.0f; //70.42f;
         float cameraAngleY = 43.30f;
-                                                  
+
         // Calculate difference from x and y to center
         float pixErrorX = x - centerX;
         float pixErrorY = -y + centerY;
-                                                  
+
         // Calculate angle error in x and y direction
         angleErrorX = (pixErrorX/centerX)*cameraAngleX;
         angleErrorY = (pixErrorY/centerY)*cameraAngleY;
-        Core.line(webcam_image, new Point(x,y), new Point(centerX,centerY), new Scalar(150,150,100)/*CV_BGR(100,10,10)*/, 3);  
-        
-        //angles = new float[]{angleErrorX, angleErrorY};
-        //angles.add(angleErrorX);
-        //angles.add(angleErrorY);
 
-        }  
+        }
         else{
            if(angleErrorX > 0){
             angleErrorX = 255;
@@ -264,48 +572,167 @@ public class ObjectTracker implements Runnable {
            else{
             angleErrorX = -255;
             angleErrorY = -255;
-           }   
+           }
         }
-        angles.add(angleErrorX);
-        angles.add(angleErrorY);
-        return angles;
     }
 
-    
-    
+
+
+    /*
+    * draw the target, the centre and the line between them on the image
+    */
+    private void drawOverlay(VisionFrame vf) {
+        if(!targetFound) {
+            return;
+        }
+        Mat webcam_image = vf.getImage();
+        // drawing is in image coordinates, the angles in camera frame coordinates
+        targetPoint.x = (targetX - vf.getOffsetX()) / vf.getScale();
+        targetPoint.y = (targetY - vf.getOffsetY()) / vf.getScale();
+        Core.circle(webcam_image, targetPoint, 4, circleColor, 4);
+
+        // CenterCirle
+        centerPoint.x = (vf.getFrameWidth() / 2 - vf.getOffsetX()) / vf.getScale();
+        centerPoint.y = (vf.getFrameHeight() / 2 - vf.getOffsetY()) / vf.getScale();
+        Core.circle(webcam_image, centerPoint, 4, circleColor, 4);
+        Core.line(webcam_image, targetPoint, centerPoint, lineColor/*CV_BGR(100,10,10)*/, 3);
+    }
+
+
+
     private void setColorTrackingValues() {
-        double[] HsvMin = new double[]{this.hueMin, this.satMin, this.valMin}; //{35, 93, 74};
-        hsv_min.set(HsvMin);
-        double[] HsvMax = new double[]{this.hueMax, this.satMax, this.valMax}; //{74,223,14335};
-        hsv_max.set(HsvMax);
-        
+        colorRange = new ColorRange(this.hueMin, this.hueMax, this.satMin, this.satMax, this.valMin, this.valMax);
+
         brightness = 1.0;
         contrast = 1.0;
     }
-    
-    
-    
-    public int getX(List<MatOfPoint> contours){
-		List<Moments> mu = new ArrayList<>(contours.size());
-		int x=0;
+
+    /**
+     * change the colour range of the target, in OpenCV HSV units (hue 0-180,
+     * saturation and value 0-255). the segmentation stage picks it up on the
+     * next frame
+     */
+    public void setColorRange(int hueMin, int hueMax, int satMin, int satMax, int valMin, int valMax) {
+        colorRange = new ColorRange(hueMin, hueMax, satMin, satMax, valMin, valMax);
+    }
+
+
+
+    /*
+    * findContours creates a native Mat for every contour, free them now
+    * instead of waiting for the garbage collector
+    */
+    private void releaseContours() {
         for (int i = 0; i < contours.size(); i++) {
-            mu.add(i, Imgproc.moments(contours.get(i), false));
-            Moments p = mu.get(i);
-            x = (int) (p.get_m10() / p.get_m00());
+            contours.get(i).release();
         }
-        return x;
-	}
-        
-	public int getY(List<MatOfPoint> contours){
-		List<Moments> mu = new ArrayList<>(contours.size());
-		int y=0;
-        for (int i = 0; i < contours.size(); i++) {
-            mu.add(i, Imgproc.moments(contours.get(i), false));
-            Moments p = mu.get(i);
-            y = (int) (p.get_m01() / p.get_m00());
+        contours.clear();
+    }
+
+    /**
+     * native memory held by the tracker, the sum of all reused Mats
+     *
+     * @return bytes
+     */
+    public long getNativeBytes() {
+        long bytes = 0;
+        for (Mat mat : pool) {
+            bytes += mat.total() * mat.elemSize();
+        }
+        for (VisionFrame vf : frames) {
+            bytes += vf.getNativeBytes();
         }
-        return y;
-	}
+        return bytes;
+    }
+
+    /**
+     * confidence of the last target found, see BlobAnalyzer
+     *
+     * @return confidence from 0 to 1
+     */
+    public double getTargetConfidence() {
+        return targetConfidence;
+    }
+
+    /**
+     * time a stage works on one frame, over the last minute. the returned
+     * histogram is reused
+     *
+     * @param stage PREPROCESS, SEGMENT or ANALYZE
+     * @return the histogram
+     */
+    public LatencyHistogram getStageTime(int stage) {
+        return stageTime[stage].getSnapshot();
+    }
+
+    /**
+     * time from capture until a stage is done with the frame. for ANALYZE
+     * this is the capture to target latency. over the last minute, the
+     * returned histogram is reused
+     *
+     * @param stage PREPROCESS, SEGMENT or ANALYZE
+     * @return the histogram
+     */
+    public LatencyHistogram getStageLatency(int stage) {
+        return stageLatency[stage].getSnapshot();
+    }
+
+    /*
+    * log the stage latencies and the native memory now and then. the pool
+    * only changes size when the resolution changes, the process RSS shows
+    * anything else that grows
+    */
+    private void reportMemory() {
+        long now = System.nanoTime();
+        if (now - lastMemoryReport < memoryReportInterval) {
+            return;
+        }
+        lastMemoryReport = now;
+
+        long poolBytes = getNativeBytes();
+        if (poolBytesAtStart < 0) {
+            poolBytesAtStart = poolBytes;
+        }
+        EventLog.log(EventLog.INFO, "tracker: {} frames, pool {} bytes, rss {} kB, {} frames skipped",
+                framesProcessed, poolBytes, residentKilobytes(), exchange.getFramesSkipped());
+        if (poolBytes != poolBytesAtStart) {
+            EventLog.log(EventLog.WARN, "tracker pool changed from {} to {} bytes", poolBytesAtStart, poolBytes);
+            poolBytesAtStart = poolBytes;
+        }
+        EventLog.log(EventLog.INFO, "tracker queues: {} of {} preprocessed and {} of {} segmented frames replaced",
+                preprocessed.getReplaced(), preprocessed.getOffered(), segmented.getReplaced(), segmented.getOffered());
+        EventLog.log(EventLog.INFO, "tracker window: {} window, {} downscaled, {} full frames",
+                modeFrames[TrackingWindow.WINDOW], modeFrames[TrackingWindow.DOWNSCALED], modeFrames[TrackingWindow.FULL]);
+        EventLog.log(EventLog.INFO, "tracker blobs: {} contours, {} too small, {} not round",
+                blobs.getContours(), blobs.getTooSmall(), blobs.getNotRound());
+        long withoutBuffer = framesWithoutBuffer.get();
+        if (withoutBuffer > 0) {
+            EventLog.log(EventLog.WARN, "tracker: {} camera frames dropped, no free VisionFrame", withoutBuffer);
+        }
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            EventLog.log(EventLog.INFO, "{o}", String.format("tracker %s: work %s, since capture %s",
+                    STAGE_NAMES[i], getStageTime(i), getStageLatency(i)));
+        }
+        List<VisionStage> stages = graph.getStages();
+        for (int i = 0; i < stages.size(); i++) {
+            VisionStage stage = stages.get(i);
+            if (stage.isLive()) {
+                EventLog.log(EventLog.INFO, "{o}", String.format("tracker stage %s: %s", stage.getName(), stage.getTime()));
+            }
+        }
+    }
+
+    /*
+    * resident set size of the process from /proc, -1 if not available
+    */
+    private static long residentKilobytes() {
+        try {
+            String[] statm = new String(Files.readAllBytes(Paths.get("/proc/self/statm"))).trim().split(" ");
+            return Long.parseLong(statm[1]) * 4;
+        } catch (IOException | RuntimeException ex) {
+            return -1;
+        }
+    }
+
 
-    
 }
@@ -0,0 +1,196 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * PipeSerialTransport class. an in-memory serial link, one pipe in each
+ * direction. the server uses getInputStream and getOutputStream, the device
+ * side (an emulator or a test) uses getDeviceInputStream and
+ * getDeviceOutputStream.
+ *
+ * unlike PipedInputStream a read wakes as soon as bytes are written, and the
+ * streams may be used from any thread. a write blocks while the pipe is full,
+ * like a serial port with a full transmit buffer
+ */
+public class PipeSerialTransport implements SerialTransport {
+
+    private final Pipe toDevice;
+    private final Pipe fromDevice;
+
+    /**
+     * create a link
+     *
+     * @param capacity bytes buffered in each direction
+     */
+    public PipeSerialTransport(int capacity) {
+        this.toDevice = new Pipe(capacity);
+        this.fromDevice = new Pipe(capacity);
+    }
+
+    public PipeSerialTransport() {
+        this(4096);
+    }
+
+    /**
+     * nothing to open, the name is ignored
+     */
+    @Override
+    public void open(String portName) {
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return fromDevice.input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return toDevice.output;
+    }
+
+    /**
+     * stream of the bytes the server writes
+     *
+     * @return the stream
+     */
+    public InputStream getDeviceInputStream() {
+        return toDevice.input;
+    }
+
+    /**
+     * stream to the server
+     *
+     * @return the stream
+     */
+    public OutputStream getDeviceOutputStream() {
+        return fromDevice.output;
+    }
+
+    /**
+     * close both directions, reads return -1 when the pipe is empty and
+     * writes fail
+     */
+    @Override
+    public void close() {
+        toDevice.close();
+        fromDevice.close();
+    }
+
+    /**
+     * a bounded byte ring with a blocking input and output stream
+     */
+    private static final class Pipe {
+
+        private final byte[] buffer;
+        private int head; // next byte to read
+        private int count;
+        private boolean closed;
+
+        final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return Pipe.this.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                return Pipe.this.available();
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Pipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        Pipe(int capacity) {
+            this.buffer = new byte[capacity];
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (count == 0) {
+                if (closed) {
+                    return -1;
+                }
+                this.await();
+            }
+            int n = Math.min(len, count);
+            int first = Math.min(n, buffer.length - head);
+            System.arraycopy(buffer, head, b, off, first);
+            System.arraycopy(buffer, 0, b, off + first, n - first);
+            head = (head + n) % buffer.length;
+            count -= n;
+            this.notifyAll();
+            return n;
+        }
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                while (count == buffer.length && !closed) {
+                    this.await();
+                }
+                if (closed) {
+                    throw new IOException("pipe closed");
+                }
+                int tail = (head + count) % buffer.length;
+                int n = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, n);
+                count += n;
+                off += n;
+                len -= n;
+                this.notifyAll();
+            }
+        }
+
+        synchronized int available() {
+            return count;
+        }
+
+        synchronized void close() {
+            closed = true;
+            this.notifyAll();
+        }
+
+        private void await() throws IOException {
+            try {
+                this.wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", ex);
+            }
+        }
+    }
+}
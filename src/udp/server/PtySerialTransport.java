@@ -0,0 +1,94 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * PtySerialTransport class. a terminal device opened as a file, for a Linux
+ * pseudo terminal or a serial port without RXTX. the device is set to raw
+ * mode with stty.
+ *
+ * a pair of pseudo terminals can be made with
+ * socat -d -d pty,raw,echo=0 pty,raw,echo=0
+ * the server opens one end, e.g. -Dserial.transport=pty
+ * -Dserial.port=/dev/pts/3, and an emulator or a test the other
+ *
+ * the streams are on FileChannels. closing a FileInputStream does not wake a
+ * read that is blocked on a terminal, closing the channel or interrupting
+ * the reading thread does
+ */
+public class PtySerialTransport implements SerialTransport {
+
+    private final int baudRate = 19200;
+    private FileChannel in;
+    private FileChannel out;
+    private InputStream inStream;
+    private OutputStream outStream;
+
+    @Override
+    public void open(String portName) throws IOException {
+        this.configure(portName);
+        in = FileChannel.open(Paths.get(portName), StandardOpenOption.READ);
+        try {
+            out = FileChannel.open(Paths.get(portName), StandardOpenOption.WRITE);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+        inStream = Channels.newInputStream(in);
+        outStream = Channels.newOutputStream(out);
+    }
+
+    /*
+    * raw mode, no echo, no line editing. the baud rate only matters for a
+    * real serial port
+    */
+    private void configure(String portName) throws IOException {
+        Process stty = new ProcessBuilder("stty", "-F", portName, "raw", "-echo", Integer.toString(baudRate))
+                .redirectErrorStream(true).start();
+        try {
+            if (stty.waitFor() != 0) {
+                throw new IOException("stty failed for " + portName);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while configuring " + portName, ex);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return inStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return outStream;
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (out != null) {
+                out.close();
+            }
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(PtySerialTransport.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+}
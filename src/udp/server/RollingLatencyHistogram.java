@@ -0,0 +1,113 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RollingLatencyHistogram class. a LatencyHistogram over the last few
+ * seconds instead of since the start.
+ *
+ * the window is split in slots of equal length, each with its own
+ * LatencyHistogram. a value goes into the slot of the current time, and a
+ * slot is cleared when the time comes around to it again. a snapshot adds
+ * up all slots.
+ *
+ * recording is lock-free and may be done from any thread. a value recorded
+ * while its slot is being cleared may be lost
+ */
+public class RollingLatencyHistogram {
+
+    private final LatencyHistogram[] slots;
+    private final long slotNanos;
+    private final AtomicLong currentSlot;
+    private final LatencyHistogram snapshot;
+
+    /**
+     * create a rolling histogram
+     *
+     * @param slotCount number of slots
+     * @param slotNanos length of one slot in ns, the window is slotCount *
+     * slotNanos
+     */
+    public RollingLatencyHistogram(int slotCount, long slotNanos) {
+        this.slots = new LatencyHistogram[slotCount];
+        for (int i = 0; i < slotCount; i++) {
+            this.slots[i] = new LatencyHistogram();
+        }
+        this.slotNanos = slotNanos;
+        this.currentSlot = new AtomicLong(Math.floorDiv(System.nanoTime(), slotNanos));
+        this.snapshot = new LatencyHistogram();
+    }
+
+    /**
+     * record a value
+     *
+     * @param nanos latency in ns
+     */
+    public void record(long nanos) {
+        long slot = this.rotate(System.nanoTime());
+        slots[index(slot)].record(nanos);
+    }
+
+    /**
+     * record the time since a start time
+     *
+     * @param startNanos start time from System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        long now = System.nanoTime();
+        long slot = this.rotate(now);
+        slots[index(slot)].record(now - startNanos);
+    }
+
+    /*
+    * move to the slot of the given time and clear the slots that are reused
+    */
+    private long rotate(long now) {
+        long slot = Math.floorDiv(now, slotNanos);
+        long current = currentSlot.get();
+        while (slot > current) {
+            if (currentSlot.compareAndSet(current, slot)) {
+                long first = Math.max(current + 1, slot - slots.length + 1);
+                for (long s = first; s <= slot; s++) {
+                    slots[index(s)].reset();
+                }
+                break;
+            }
+            current = currentSlot.get();
+        }
+        return slot;
+    }
+
+    private int index(long slot) {
+        return (int) Math.floorMod(slot, (long) slots.length);
+    }
+
+    /**
+     * the values of the whole window in one histogram. the returned
+     * histogram is reused by the next call
+     *
+     * @return the snapshot
+     */
+    public synchronized LatencyHistogram getSnapshot() {
+        this.rotate(System.nanoTime());
+        snapshot.reset();
+        for (LatencyHistogram slot : slots) {
+            snapshot.add(slot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * length of the window
+     *
+     * @return ns
+     */
+    public long getWindow() {
+        return slotNanos * slots.length;
+    }
+}
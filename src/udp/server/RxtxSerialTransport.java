@@ -0,0 +1,68 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import gnu.io.CommPort;
+import gnu.io.CommPortIdentifier;
+import gnu.io.NoSuchPortException;
+import gnu.io.PortInUseException;
+import gnu.io.SerialPort;
+import gnu.io.UnsupportedCommOperationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * RxtxSerialTransport class. a serial port opened with RXTX, 19200 baud 8N1
+ */
+public class RxtxSerialTransport implements SerialTransport {
+
+    private final int baudRate = 19200;
+    private SerialPort serialPort;
+    private InputStream in;
+    private OutputStream out;
+
+    @Override
+    public void open(String portName) throws IOException {
+        try {
+            CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(portName);
+            if (portIdentifier.isCurrentlyOwned()) {
+                throw new IOException("Port is currently in use: " + portName);
+            }
+            CommPort commPort = portIdentifier.open(this.getClass().getName(), 2000);
+            if (!(commPort instanceof SerialPort)) {
+                commPort.close();
+                throw new IOException("Only serial ports are handled: " + portName);
+            }
+            serialPort = (SerialPort) commPort;
+            serialPort.setSerialPortParams(baudRate, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+            serialPort.disableReceiveTimeout();
+            serialPort.enableReceiveThreshold(SerialFrame.FRAME_LENGTH);
+            in = serialPort.getInputStream();
+            out = serialPort.getOutputStream();
+        } catch (NoSuchPortException | PortInUseException | UnsupportedCommOperationException ex) {
+            throw new IOException("Can not open " + portName, ex);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public void close() {
+        if (serialPort != null) {
+            serialPort.close();
+            serialPort = null;
+        }
+    }
+}
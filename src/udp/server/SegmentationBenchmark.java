@@ -0,0 +1,131 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.highgui.Highgui;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * SegmentationBenchmark class. compares the time to build the colour mask
+ * and the distance mask with cvtColor and inRange against one pass with
+ * ColorLookupTable, and how many mask pixels the two paths disagree on.
+ *
+ * usage: SegmentationBenchmark [frames] [image file]. without an image file
+ * a frame from the camera is used, or a drawn test frame if there is no camera
+ */
+public class SegmentationBenchmark {
+
+    // tennis ball, the default range of ObjectTracker
+    private final int hueMin = 29;
+    private final int hueMax = 38;
+    private final int satMin = 66;
+    private final int satMax = 195;
+    private final int valMin = 71;
+    private final int valMax = 255;
+    private final double maxDistance = 200.0;
+
+    private final Mat frame;
+    private final int frames;
+
+    private final Mat hsv = new Mat();
+    private final Mat saturation = new Mat();
+    private final Mat value = new Mat();
+    private final Mat saturationF = new Mat();
+    private final Mat valueF = new Mat();
+    private final Mat distance = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat distanceMask = new Mat();
+    private final Mat lookupMask = new Mat();
+    private final Mat lookupDistanceMask = new Mat();
+
+    public SegmentationBenchmark(Mat frame, int frames) {
+        this.frame = frame;
+        this.frames = frames;
+    }
+
+    /**
+     * run both paths and print the result
+     */
+    public void run() {
+        Scalar hsvMin = new Scalar(hueMin, satMin, valMin);
+        Scalar hsvMax = new Scalar(hueMax, satMax, valMax);
+        Scalar distanceMin = new Scalar(0.0);
+        Scalar distanceMax = new Scalar(maxDistance);
+
+        long start = System.nanoTime();
+        ColorLookupTable table = new ColorLookupTable(maxDistance);
+        table.setRange(hueMin, hueMax, satMin, satMax, valMin, valMax);
+        long buildTime = System.nanoTime() - start;
+
+        // warm up both paths before measuring
+        for (int i = 0; i < Math.max(1, frames / 10); i++) {
+            this.hsvPath(hsvMin, hsvMax, distanceMin, distanceMax);
+            table.apply(frame, lookupMask, lookupDistanceMask);
+        }
+
+        LatencyHistogram hsvTime = new LatencyHistogram();
+        LatencyHistogram lookupTime = new LatencyHistogram();
+        for (int i = 0; i < frames; i++) {
+            start = System.nanoTime();
+            this.hsvPath(hsvMin, hsvMax, distanceMin, distanceMax);
+            hsvTime.recordSince(start);
+
+            start = System.nanoTime();
+            table.apply(frame, lookupMask, lookupDistanceMask);
+            lookupTime.recordSince(start);
+        }
+
+        double pixels = frame.total();
+        Mat difference = new Mat();
+        Core.absdiff(mask, lookupMask, difference);
+        double maskDifference = 100.0 * Core.countNonZero(difference) / pixels;
+        Core.absdiff(distanceMask, lookupDistanceMask, difference);
+        double distanceDifference = 100.0 * Core.countNonZero(difference) / pixels;
+
+        System.out.println(String.format("frame %dx%d, %d frames, table built in %.2f ms",
+                frame.cols(), frame.rows(), frames, buildTime / 1e6));
+        System.out.println(String.format("cvtColor + inRange: mean %.3f ms, p99 %.3f ms",
+                hsvTime.getMean() / 1e6, hsvTime.getPercentile(99) / 1e6));
+        System.out.println(String.format("lookup table:       mean %.3f ms, p99 %.3f ms",
+                lookupTime.getMean() / 1e6, lookupTime.getPercentile(99) / 1e6));
+        System.out.println(String.format("speedup: %.2fx", (double) hsvTime.getMean() / lookupTime.getMean()));
+        System.out.println(String.format("pixels that differ: colour mask %.3f %%, distance mask %.3f %%",
+                maskDifference, distanceDifference));
+    }
+
+    /**
+     * the segmentation ObjectTracker does by default, -Dtracker.segmentation=hsv
+     */
+    private void hsvPath(Scalar hsvMin, Scalar hsvMax, Scalar distanceMin, Scalar distanceMax) {
+        Imgproc.cvtColor(frame, hsv, Imgproc.COLOR_BGR2HSV);
+        Core.inRange(hsv, hsvMin, hsvMax, mask);
+        Core.extractChannel(hsv, saturation, 1);
+        Core.extractChannel(hsv, value, 2);
+        Core.bitwise_not(saturation, saturation);
+        Core.bitwise_not(value, value);
+        saturation.convertTo(saturationF, CvType.CV_32F);
+        value.convertTo(valueF, CvType.CV_32F);
+        Core.magnitude(saturationF, valueF, distance);
+        Core.inRange(distance, distanceMin, distanceMax, distanceMask);
+    }
+
+    /**
+     * start the benchmark
+     *
+     * @param args number of frames, image file
+     */
+    public static void main(String[] args) {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        int frames = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        Mat frame = args.length > 1 ? Highgui.imread(args[1]) : CameraPipelineBenchmark.testFrame();
+
+        new SegmentationBenchmark(frame, frames).run();
+    }
+}
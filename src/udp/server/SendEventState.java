@@ -1,15 +0,0 @@
-/*
- * To change this license header, choose License Headers in Project Properties.
- * To change this template file, choose Tools | Templates
- * and open the template in the editor.
- */
-package udp.server;
-
-/**
- *
- * @author Eivind Fugledal
- */
-public enum SendEventState {
-    TRUE,FALSE;
-    
-}
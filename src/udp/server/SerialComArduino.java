@@ -4,9 +4,6 @@
  * and open the template in the editor.
  */
 package udp.server;
-import gnu.io.CommPort;
-import gnu.io.CommPortIdentifier;
-import gnu.io.SerialPort;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.concurrent.Semaphore;
@@ -20,61 +17,81 @@ public class SerialComArduino
 {
     private Thread reader; // reads from arduino
     private Thread writer;  // writes to arduino
+    private SerialReader serialReader;
+    private SerialWriter serialWriter;
     private final DataHandler datahandler;
+    private final SerialTransport transport;
     
     /**
-     * create a new SerialComArduino object
+     * create a new SerialComArduino object on a RXTX serial port
      * @param datahandler the shared resource
      */
     public SerialComArduino(DataHandler datahandler)
+    {
+        this(datahandler, new RxtxSerialTransport());
+    }
+
+    /**
+     * create a new SerialComArduino object
+     * @param datahandler the shared resource
+     * @param transport the streams to the arduino
+     */
+    public SerialComArduino(DataHandler datahandler, SerialTransport transport)
     {
         this.datahandler = datahandler;
+        this.transport = transport;
     }
 
     /**
-     * connect streams to a serialport and start the reader and writer
+     * open the transport and start the reader and writer
      * @param portName the name of the usb port
      * @param semaphore semaphore object 
      * @throws Exception 
      */
     public void connect (String portName, Semaphore semaphore) throws Exception
     {
-        System.out.println("Connect");
-        CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(portName);
-        if ( portIdentifier.isCurrentlyOwned() )
-        {
-            System.out.println("Error: Port is currently in use");
+        EventLog.log(EventLog.INFO, "CONNECT {o}", portName);
+        try {
+            transport.open(portName);
+        } catch (Exception ex) {
+            datahandler.getSerialStatistics().connectFailed(portName, ex);
+            throw ex;
         }
-        else
-        {
-            CommPort commPort = portIdentifier.open(this.getClass().getName(),2000);
-            
-            if ( commPort instanceof SerialPort )
-            {
-                SerialPort serialPort = (SerialPort) commPort;
-                serialPort.setSerialPortParams(19200,SerialPort.DATABITS_8,SerialPort.STOPBITS_1,SerialPort.PARITY_NONE);
-                serialPort.disableReceiveTimeout();
-                serialPort.enableReceiveThreshold(6);
-                InputStream in = serialPort.getInputStream();
-                OutputStream out = serialPort.getOutputStream();
-                
-                reader = new Thread(new SerialReader(in,datahandler, semaphore));
-                writer = new Thread(new SerialWriter(out,datahandler, semaphore));
-                
-                writer.start();
-                reader.start();
-
-            }
-            else
-            {
-                System.out.println("Error: Only serial ports are handled by this example.");
-            }
-        }     
-    }   
-}
-    
+        datahandler.getSerialStatistics().connected(portName);
+        InputStream in = transport.getInputStream();
+        OutputStream out = transport.getOutputStream();
 
+        serialReader = new SerialReader(in, datahandler, semaphore);
+        serialWriter = new SerialWriter(out, datahandler, semaphore);
+        reader = new Thread(serialReader, "serial reader");
+        writer = new Thread(serialWriter, "serial writer");
 
+        writer.start();
+        reader.start();
+    }
 
+    /**
+     * close the transport and interrupt the reader and writer, they stop
+     * when their stream ends or fails. a read blocked on an RXTX port may
+     * only end when the port is gone
+     */
+    public void disconnect()
+    {
+        transport.close();
+        if (reader != null) {
+            reader.interrupt();
+            writer.interrupt();
+        }
+        datahandler.getSerialStatistics().disconnected();
+    }
 
+    public SerialReader getSerialReader()
+    {
+        return serialReader;
+    }
 
+    public SerialWriter getSerialWriter()
+    {
+        return serialWriter;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+/**
+ * SerialFrame class. the framing of the 6 byte messages on the serial link
+ * to the Arduino, in both directions:
+ *
+ * Byte 0: 0xA5 Byte 1: 0x5A (sync) Byte 2: payload length (6) Byte 3-8:
+ * payload as documented in DataHandler Byte 9: CRC-8 (polynomial 0x07, init
+ * 0) over the length and the payload
+ *
+ * the Arduino firmware must use the same framing
+ */
+public final class SerialFrame {
+
+    public static final int SYNC_1 = 0xA5;
+    public static final int SYNC_2 = 0x5A;
+    public static final int PAYLOAD_LENGTH = 6;
+    public static final int HEADER_LENGTH = 3; // sync and length
+    public static final int FRAME_LENGTH = HEADER_LENGTH + PAYLOAD_LENGTH + 1;
+
+    private static final byte[] CRC_TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            CRC_TABLE[i] = (byte) crc;
+        }
+    }
+
+    private SerialFrame() {
+        // static only
+    }
+
+    /**
+     * add a byte to a CRC-8
+     *
+     * @param crc the CRC so far, 0 to start
+     * @param b the byte
+     * @return the new CRC
+     */
+    public static int crc8(int crc, byte b) {
+        return CRC_TABLE[(crc ^ b) & 0xFF] & 0xFF;
+    }
+
+    /**
+     * write a payload as a frame
+     *
+     * @param payload PAYLOAD_LENGTH bytes
+     * @param frame array of at least FRAME_LENGTH bytes for the frame
+     * @return number of bytes written to frame
+     */
+    public static int encode(byte[] payload, byte[] frame) {
+        frame[0] = (byte) SYNC_1;
+        frame[1] = (byte) SYNC_2;
+        frame[2] = (byte) PAYLOAD_LENGTH;
+        int crc = crc8(0, frame[2]);
+        for (int i = 0; i < PAYLOAD_LENGTH; i++) {
+            frame[HEADER_LENGTH + i] = payload[i];
+            crc = crc8(crc, payload[i]);
+        }
+        frame[FRAME_LENGTH - 1] = (byte) crc;
+        return FRAME_LENGTH;
+    }
+}
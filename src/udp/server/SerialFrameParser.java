@@ -0,0 +1,188 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+/**
+ * SerialFrameParser class. finds SerialFrames in the bytes read from the
+ * serial port.
+ *
+ * the bytes are appended to a ring buffer in any chunk size. next() looks
+ * for the sync bytes, checks the length and the CRC and copies the payload
+ * to a reused array. bytes before a sync are skipped, and when a frame has a
+ * wrong length or CRC only its first sync byte is dropped, so a real frame
+ * that starts inside the broken one is still found. nothing is allocated
+ * after construction. not thread safe, owned by the SerialReader
+ */
+public class SerialFrameParser {
+
+    private final byte[] ring;
+    private final int mask;
+    private long head; // next byte to parse
+    private long tail; // next byte to write
+    private final byte[] payload;
+
+    private long frames;
+    private long crcFailures;
+    private long lengthErrors;
+    private long resyncs;
+    private long bytesSkipped;
+    private long overflows;
+    private boolean inSync;
+
+    /**
+     * create a parser
+     *
+     * @param capacity size of the ring buffer in bytes, a power of two of at
+     * least twice SerialFrame.FRAME_LENGTH
+     */
+    public SerialFrameParser(int capacity) {
+        if (Integer.bitCount(capacity) != 1 || capacity < 2 * SerialFrame.FRAME_LENGTH) {
+            throw new IllegalArgumentException("capacity must be a power of two >= " + 2 * SerialFrame.FRAME_LENGTH);
+        }
+        this.ring = new byte[capacity];
+        this.mask = capacity - 1;
+        this.payload = new byte[SerialFrame.PAYLOAD_LENGTH];
+        this.inSync = true;
+    }
+
+    /**
+     * append bytes read from the port. if the ring is full the oldest bytes
+     * are dropped
+     *
+     * @param data the bytes
+     * @param offset first byte in data
+     * @param length number of bytes
+     */
+    public void append(byte[] data, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            ring[(int) (tail++ & mask)] = data[offset + i];
+        }
+        if (tail - head > ring.length) {
+            long lost = tail - head - ring.length;
+            head += lost;
+            bytesSkipped += lost;
+            overflows++;
+            inSync = false;
+        }
+    }
+
+    /**
+     * parse the next frame
+     *
+     * @return true if a frame was found, its payload is in getPayload()
+     * until the next call
+     */
+    public boolean next() {
+        while (tail - head >= SerialFrame.FRAME_LENGTH) {
+            if (byteAt(0) != SerialFrame.SYNC_1 || byteAt(1) != SerialFrame.SYNC_2) {
+                this.skip();
+                continue;
+            }
+            if (byteAt(2) != SerialFrame.PAYLOAD_LENGTH) {
+                lengthErrors++;
+                this.skip();
+                continue;
+            }
+            int crc = SerialFrame.crc8(0, (byte) SerialFrame.PAYLOAD_LENGTH);
+            for (int i = 0; i < SerialFrame.PAYLOAD_LENGTH; i++) {
+                byte b = ring[(int) ((head + SerialFrame.HEADER_LENGTH + i) & mask)];
+                payload[i] = b;
+                crc = SerialFrame.crc8(crc, b);
+            }
+            if (crc != byteAt(SerialFrame.FRAME_LENGTH - 1)) {
+                crcFailures++;
+                this.skip();
+                continue;
+            }
+            head += SerialFrame.FRAME_LENGTH;
+            inSync = true;
+            frames++;
+            return true;
+        }
+        return false;
+    }
+
+    private int byteAt(int index) {
+        return ring[(int) ((head + index) & mask)] & 0xFF;
+    }
+
+    /*
+    * drop one byte, the first one dropped after a good frame starts a resync
+    */
+    private void skip() {
+        if (inSync) {
+            inSync = false;
+            resyncs++;
+        }
+        head++;
+        bytesSkipped++;
+    }
+
+    /**
+     * the payload of the last frame found by next(), the array is reused
+     *
+     * @return SerialFrame.PAYLOAD_LENGTH bytes
+     */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * number of good frames
+     *
+     * @return frames
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * frames with the sync bytes and length but a wrong CRC
+     *
+     * @return frames
+     */
+    public long getCrcFailures() {
+        return crcFailures;
+    }
+
+    /**
+     * frames with the sync bytes but a wrong length
+     *
+     * @return frames
+     */
+    public long getLengthErrors() {
+        return lengthErrors;
+    }
+
+    /**
+     * number of times the parser lost the frame boundary and had to look
+     * for the sync bytes again
+     *
+     * @return resyncs
+     */
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * bytes dropped while looking for the sync bytes or because the ring
+     * was full
+     *
+     * @return bytes
+     */
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    /**
+     * number of times the ring was full and bytes were dropped
+     *
+     * @return overflows
+     */
+    public long getOverflows() {
+        return overflows;
+    }
+}
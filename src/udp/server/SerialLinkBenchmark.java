@@ -0,0 +1,176 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SerialLinkBenchmark class. runs the SerialReader and SerialWriter against
+ * a device that echoes the request code, and measures the round trip time of
+ * one command at a time and the frame rate when commands are sent as fast as
+ * possible.
+ *
+ * usage: SerialLinkBenchmark [commands] [server pty] [device pty]. without
+ * the two ends of a pseudo terminal pair (see PtySerialTransport) the link is
+ * a PipeSerialTransport. the writer is limited by -Dserial.maxrate and
+ * -Dserial.coalesce as in the server, set both to 0 to measure the link
+ */
+public class SerialLinkBenchmark {
+
+    private final SerialTransport server;
+    private final InputStream deviceIn;
+    private final OutputStream deviceOut;
+    private final int commands;
+    private final long echoTimeout = 1000000000L; // ns
+    private final long throughputTime = 2000000000L; // ns
+
+    private final DataHandler dh;
+    private final Semaphore semaphore;
+    private volatile long deviceFrames;
+
+    public SerialLinkBenchmark(SerialTransport server, InputStream deviceIn, OutputStream deviceOut, int commands) {
+        this.server = server;
+        this.deviceIn = deviceIn;
+        this.deviceOut = deviceOut;
+        this.commands = commands;
+        this.dh = new DataHandler();
+        this.semaphore = new Semaphore(1, true);
+    }
+
+    /**
+     * run both measurements and print the result
+     *
+     * @param portName port of the server end
+     * @throws Exception if the link can not be opened
+     */
+    public void run(String portName) throws Exception {
+        dh.setThreadStatus(true);
+        Thread device = new Thread(this::echo, "echo device");
+        device.setDaemon(true);
+        device.start();
+        SerialComArduino sca = new SerialComArduino(dh, server);
+        sca.connect(portName, semaphore);
+
+        // round trip of one command at a time
+        LatencyHistogram roundTrip = new LatencyHistogram();
+        int timeouts = 0;
+        for (int i = 0; i < commands; i++) {
+            acquire();
+            dh.incrementRequestCode();
+            byte code = dh.getDataFromController()[Protocol.REQUEST_FEEDBACK.getValue()];
+            release();
+            long start = System.nanoTime();
+            if (this.awaitEcho(code, start + echoTimeout)) {
+                roundTrip.recordSince(start);
+            } else {
+                timeouts++;
+            }
+        }
+
+        // as many commands as the writer takes
+        SerialWriter writer = sca.getSerialWriter();
+        long writes = writer.getWrites();
+        long frames = deviceFrames;
+        long updates = 0;
+        long start = System.nanoTime();
+        while (System.nanoTime() - start < throughputTime) {
+            acquire();
+            dh.incrementRequestCode();
+            release();
+            updates++;
+        }
+        // let the last frame arrive
+        Thread.sleep(100);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        writes = writer.getWrites() - writes;
+        frames = deviceFrames - frames;
+
+        dh.setThreadStatus(false);
+        sca.disconnect();
+
+        System.out.println("round trip (" + commands + " commands, " + timeouts + " timeouts): " + roundTrip);
+        System.out.println(String.format("throughput: %d updates, %d frames written (%.0f/s), %d frames at the device, %d coalesced",
+                updates, writes, writes / seconds, frames, writer.getCoalesced()));
+        SerialFrameParser parser = sca.getSerialReader().getParser();
+        System.out.println("server parser: frames " + parser.getFrames() + ", crc failures " + parser.getCrcFailures()
+                + ", resyncs " + parser.getResyncs());
+    }
+
+    /*
+    * wait until the reader has handed the echo of a code to the datahandler
+    */
+    private boolean awaitEcho(byte code, long deadline) {
+        while (System.nanoTime() < deadline) {
+            acquire();
+            byte echoed = dh.getRequestCodeFromArduino();
+            release();
+            if (echoed == code) {
+                return true;
+            }
+            LockSupport.parkNanos(10000);
+        }
+        return false;
+    }
+
+    /*
+    * the device: answer every frame with the request code and a distance
+    */
+    private void echo() {
+        SerialFrameParser parser = new SerialFrameParser(256);
+        byte[] buffer = new byte[64];
+        byte[] reply = new byte[SerialFrame.PAYLOAD_LENGTH];
+        byte[] frame = new byte[SerialFrame.FRAME_LENGTH];
+        reply[4] = 20; // cm
+        try {
+            int count;
+            while ((count = deviceIn.read(buffer, 0, buffer.length)) >= 0) {
+                parser.append(buffer, 0, count);
+                while (parser.next()) {
+                    deviceFrames++;
+                    reply[Protocol.REQUEST_FEEDBACK.getValue()] = parser.getPayload()[Protocol.REQUEST_FEEDBACK.getValue()];
+                    deviceOut.write(frame, 0, SerialFrame.encode(reply, frame));
+                    deviceOut.flush();
+                }
+            }
+        } catch (IOException ex) {
+            // the link was closed
+        }
+    }
+
+    private void acquire() {
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException ex) {
+            Logger.getLogger(SerialLinkBenchmark.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    private void release() {
+        semaphore.release();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int commands = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        if (args.length > 2) {
+            PtySerialTransport device = new PtySerialTransport();
+            device.open(args[2]);
+            new SerialLinkBenchmark(new PtySerialTransport(), device.getInputStream(), device.getOutputStream(), commands)
+                    .run(args[1]);
+            device.close();
+        } else {
+            PipeSerialTransport pipe = new PipeSerialTransport();
+            new SerialLinkBenchmark(pipe, pipe.getDeviceInputStream(), pipe.getDeviceOutputStream(), commands)
+                    .run("pipe");
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * SerialLinkStatistics class. health of the serial link to the Arduino,
+ * filled in by SerialReader, SerialWriter and SerialComArduino.
+ *
+ * the counters are kept since the start and over the last ten seconds, the
+ * latencies as RollingLatencyHistograms over the same window:
+ *
+ * echo round trip: from a frame written until a frame with its request code
+ * comes back. flush: time the writer was blocked in write and flush. read
+ * gap: time between two frames from the Arduino, a stutter shows up here
+ *
+ * connects, failed connects and disconnects are counted and logged when
+ * they happen. all methods may be called from any thread
+ */
+public class SerialLinkStatistics {
+
+    /**
+     * the counted events
+     */
+    public static enum Counter {
+        BYTES_WRITTEN,
+        BYTES_READ,
+        FRAMES_WRITTEN,
+        FRAMES_READ,
+        CRC_FAILURES,
+        RESYNCS;
+    }
+
+    private final int slotCount = 10;
+    private final long slotNanos = 1000000000L; // ns
+    private final AtomicLong[] totals;
+    // slotCount slots per counter
+    private final AtomicLongArray slots;
+    private final AtomicLong currentSlot;
+    private final long firstSlot;
+
+    private final RollingLatencyHistogram echoRoundTrip;
+    private final RollingLatencyHistogram flushTime;
+    private final RollingLatencyHistogram readGap;
+    private final AtomicLongArray writtenAt; // by request code
+    private volatile int lastWrittenCode = -1;
+    private volatile long lastFrameRead;
+
+    private final AtomicLong connects;
+    private final AtomicLong connectFailures;
+    private final AtomicLong disconnects;
+    private volatile String portName;
+    private volatile boolean connected;
+
+    public SerialLinkStatistics() {
+        Counter[] counters = Counter.values();
+        this.totals = new AtomicLong[counters.length];
+        for (int i = 0; i < counters.length; i++) {
+            this.totals[i] = new AtomicLong();
+        }
+        this.slots = new AtomicLongArray(counters.length * slotCount);
+        this.currentSlot = new AtomicLong(Math.floorDiv(System.nanoTime(), slotNanos));
+        this.firstSlot = this.currentSlot.get();
+        this.echoRoundTrip = new RollingLatencyHistogram(slotCount, slotNanos);
+        this.flushTime = new RollingLatencyHistogram(slotCount, slotNanos);
+        this.readGap = new RollingLatencyHistogram(slotCount, slotNanos);
+        this.writtenAt = new AtomicLongArray(256);
+        this.connects = new AtomicLong();
+        this.connectFailures = new AtomicLong();
+        this.disconnects = new AtomicLong();
+    }
+
+    /**
+     * count events
+     *
+     * @param counter the counter
+     * @param n number of events
+     */
+    public void add(Counter counter, long n) {
+        if (n == 0) {
+            return;
+        }
+        long slot = this.rotate(System.nanoTime());
+        totals[counter.ordinal()].addAndGet(n);
+        slots.addAndGet(counter.ordinal() * slotCount + index(slot), n);
+    }
+
+    /*
+    * move to the slot of the given time and clear the slots that are reused
+    */
+    private long rotate(long now) {
+        long slot = Math.floorDiv(now, slotNanos);
+        long current = currentSlot.get();
+        while (slot > current) {
+            if (currentSlot.compareAndSet(current, slot)) {
+                long first = Math.max(current + 1, slot - slotCount + 1);
+                for (long s = first; s <= slot; s++) {
+                    for (int c = 0; c < totals.length; c++) {
+                        slots.set(c * slotCount + index(s), 0);
+                    }
+                }
+                break;
+            }
+            current = currentSlot.get();
+        }
+        return slot;
+    }
+
+    private int index(long slot) {
+        return (int) Math.floorMod(slot, (long) slotCount);
+    }
+
+    /**
+     * a frame was written, called after the flush
+     *
+     * @param requestCode request code of the frame
+     * @param bytes length of the frame
+     * @param writeStart System.nanoTime() before the write
+     */
+    public void frameWritten(byte requestCode, int bytes, long writeStart) {
+        long now = System.nanoTime();
+        flushTime.record(now - writeStart);
+        int code = requestCode & 0xFF;
+        if (code != lastWrittenCode) {
+            // a new code starts the round trip, a stamp left by a lost echo
+            // of the same code 256 codes ago is overwritten
+            writtenAt.set(code, writeStart);
+            lastWrittenCode = code;
+        } else {
+            // a repeated frame keeps the time of the first
+            writtenAt.compareAndSet(code, 0, writeStart);
+        }
+        this.add(Counter.FRAMES_WRITTEN, 1);
+        this.add(Counter.BYTES_WRITTEN, bytes);
+    }
+
+    /**
+     * a frame was read
+     *
+     * @param requestCode request code in the frame
+     */
+    public void frameRead(byte requestCode) {
+        long now = System.nanoTime();
+        long last = lastFrameRead;
+        if (last != 0) {
+            readGap.record(now - last);
+        }
+        lastFrameRead = now;
+        long start = writtenAt.getAndSet(requestCode & 0xFF, 0);
+        if (start != 0) {
+            echoRoundTrip.record(now - start);
+        }
+        this.add(Counter.FRAMES_READ, 1);
+    }
+
+    /**
+     * the link was opened
+     *
+     * @param portName name of the port
+     */
+    public void connected(String portName) {
+        this.portName = portName;
+        this.connected = true;
+        connects.incrementAndGet();
+        EventLog.log(EventLog.INFO, "SERIAL CONNECTED {o}", portName);
+    }
+
+    /**
+     * the link could not be opened
+     *
+     * @param portName name of the port
+     * @param ex the reason
+     */
+    public void connectFailed(String portName, Exception ex) {
+        this.portName = portName;
+        connectFailures.incrementAndGet();
+        EventLog.log(EventLog.WARN, "SERIAL CONNECT FAILED {o}", portName + ": " + ex);
+    }
+
+    /**
+     * the link was closed or its stream ended. counted once per connect
+     */
+    public void disconnected() {
+        if (connected) {
+            connected = false;
+            disconnects.incrementAndGet();
+            EventLog.log(EventLog.WARN, "SERIAL DISCONNECTED {o}", portName);
+        }
+    }
+
+    /**
+     * count since the start
+     *
+     * @param counter the counter
+     * @return events
+     */
+    public long getTotal(Counter counter) {
+        return totals[counter.ordinal()].get();
+    }
+
+    /**
+     * events per second over the window, the current second is not complete
+     * and is left out. the first seconds after the start are counted over
+     * a shorter window
+     *
+     * @param counter the counter
+     * @return events per second
+     */
+    public double getRate(Counter counter) {
+        long slot = this.rotate(System.nanoTime());
+        long first = Math.max(slot - slotCount + 1, firstSlot);
+        if (first >= slot) {
+            return 0;
+        }
+        long sum = 0;
+        for (long s = first; s < slot; s++) {
+            sum += slots.get(counter.ordinal() * slotCount + index(s));
+        }
+        return sum / ((slot - first) * slotNanos / 1e9);
+    }
+
+    /**
+     * echo round trips over the window. the returned histogram is reused
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getEchoRoundTrip() {
+        return echoRoundTrip.getSnapshot();
+    }
+
+    /**
+     * time blocked in write and flush over the window. the returned
+     * histogram is reused
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getFlushTime() {
+        return flushTime.getSnapshot();
+    }
+
+    /**
+     * time between frames from the Arduino over the window. the returned
+     * histogram is reused
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getReadGap() {
+        return readGap.getSnapshot();
+    }
+
+    public long getConnects() {
+        return connects.get();
+    }
+
+    public long getConnectFailures() {
+        return connectFailures.get();
+    }
+
+    public long getDisconnects() {
+        return disconnects.get();
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * one line for the log
+     *
+     * @return the summary
+     */
+    @Override
+    public String toString() {
+        return String.format("serial %s: out %.0f B/s %.1f frames/s, in %.0f B/s %.1f frames/s, crc failures %d, resyncs %d, "
+                + "connects %d, failed %d, disconnects %d, echo: %s, flush: %s, read gap: %s",
+                connected ? "up" : "down",
+                getRate(Counter.BYTES_WRITTEN), getRate(Counter.FRAMES_WRITTEN),
+                getRate(Counter.BYTES_READ), getRate(Counter.FRAMES_READ),
+                getTotal(Counter.CRC_FAILURES), getTotal(Counter.RESYNCS),
+                getConnects(), getConnectFailures(), getDisconnects(),
+                getEchoRoundTrip(), getFlushTime(), getReadGap());
+    }
+}
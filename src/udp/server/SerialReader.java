@@ -8,14 +8,15 @@ package udp.server;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
+import java.nio.channels.ClosedChannelException;
 import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * serialReader class
- * reads values from a serial port
+ * reads values from a serial port. the bytes are framed as described in
+ * SerialFrame
  * @author lars-harald
  */
 public class SerialReader implements Runnable {
@@ -23,6 +24,10 @@ public class SerialReader implements Runnable {
     private final InputStream in;
     private final DataHandler dh;
     private final Semaphore semaphore;
+    private final SerialFrameParser parser;
+    private final byte[] buffer;
+    private long lastCrcFailures;
+    private long lastResyncs;
 
 
     /**
@@ -35,31 +40,75 @@ public class SerialReader implements Runnable {
         this.in = in;
         this.dh = datahandler;
         this.semaphore = semaphore;
+        this.parser = new SerialFrameParser(256);
+        this.buffer = new byte[64];
     }
 
     /**
-     * start the SerialReader
+     * start the SerialReader. reads what is available, and hands every
+     * complete frame to the datahandler
      */
     @Override
     public void run() {
-        while (dh.shouldThreadRun()) {
+        while (dh.shouldThreadRun() && !Thread.currentThread().isInterrupted()) {
             try {
-                byte[] data = new byte[6];
-                in.read(data,0,data.length);
-                System.out.println(Arrays.toString(data)+ "FROM SERIAL");
-                
-                // acuire the semaphore and write new values to the datahandler object
-                semaphore.acquire();   
-                dh.handleDataFromArduino(data);
-                
+                int count = in.read(buffer, 0, buffer.length);
+                if (count < 0) {
+                    EventLog.warn("SERIAL PORT CLOSED");
+                    dh.getSerialStatistics().disconnected();
+                    return;
+                }
+                dh.getSerialStatistics().add(SerialLinkStatistics.Counter.BYTES_READ, count);
+                parser.append(buffer, 0, count);
+                while (parser.next()) {
+                    byte[] data = parser.getPayload();
+                    dh.getSerialStatistics().frameRead(data[Protocol.REQUEST_FEEDBACK.getValue()]);
+                    EventLog.logBytes(EventLog.DEBUG, "{b} FROM SERIAL", data, data.length);
+
+                    // acuire the semaphore and write new values to the datahandler object
+                    semaphore.acquire();
+                    try {
+                        dh.handleDataFromArduino(data);
+                    } finally {
+                        semaphore.release();
+                    }
+                }
+                this.reportErrors();
+
             } catch (InterruptedException ex) {
                 Logger.getLogger(SerialWriter.class.getName()).log(Level.SEVERE, null, ex);
+            } catch (ClosedChannelException ex) {
+                // the transport was closed or the thread interrupted by disconnect
+                dh.getSerialStatistics().disconnected();
+                return;
             } catch (IOException ex) {
                 Logger.getLogger(SerialReader.class.getName()).log(Level.SEVERE, null, ex);
-            
-            } finally {
-                semaphore.release();
             }
         }
     }
+
+    /*
+    * log when the parser found broken frames or lost the frame boundary
+    */
+    private void reportErrors() {
+        long crcFailures = parser.getCrcFailures();
+        long resyncs = parser.getResyncs();
+        if (crcFailures != lastCrcFailures || resyncs != lastResyncs) {
+            dh.getSerialStatistics().add(SerialLinkStatistics.Counter.CRC_FAILURES, crcFailures - lastCrcFailures);
+            dh.getSerialStatistics().add(SerialLinkStatistics.Counter.RESYNCS, resyncs - lastResyncs);
+            EventLog.log(EventLog.WARN, "SERIAL FRAMING: crc failures {}, resyncs {}, bytes skipped {}, frames {}",
+                    crcFailures, resyncs, parser.getBytesSkipped(), parser.getFrames());
+            lastCrcFailures = crcFailures;
+            lastResyncs = resyncs;
+        }
+    }
+
+    /**
+     * the frame parser, for its counters
+     *
+     * @return the parser
+     */
+    public SerialFrameParser getParser() {
+        return parser;
+    }
 }
@@ -0,0 +1,47 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * SerialTransport interface. the byte streams to the Arduino, so the
+ * SerialReader and SerialWriter can run on a real serial port, a pseudo
+ * terminal or in memory
+ */
+public interface SerialTransport {
+
+    /**
+     * open the port
+     *
+     * @param portName name of the port, e.g. /dev/ttyACM0
+     * @throws IOException if the port can not be opened
+     */
+    void open(String portName) throws IOException;
+
+    /**
+     * stream from the Arduino, read blocks until at least one byte is
+     * available. when the transport is closed a blocked read returns -1 or
+     * throws an IOException
+     *
+     * @return the stream
+     */
+    InputStream getInputStream();
+
+    /**
+     * stream to the Arduino
+     *
+     * @return the stream
+     */
+    OutputStream getOutputStream();
+
+    /**
+     * close the port
+     */
+    void close();
+}
@@ -7,14 +7,15 @@ package udp.server;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.channels.ClosedChannelException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * SerialWriter class.
- * writes data to serialport (arduino)
+ * writes data to serialport (arduino), framed as described in SerialFrame
  * @author lars-harald
  */
 public class SerialWriter implements Runnable {
@@ -23,6 +24,17 @@ public class SerialWriter implements Runnable {
     private OutputStream out;
     private DataHandler datahandler;
     private Semaphore semaphore;
+    private final byte[] payload;
+    private final byte[] frame;
+    // wait for more changes before writing, e.g. -Dserial.coalesce=2000
+    private final long coalesceDelay = Long.getLong("serial.coalesce", 1000) * 1000L; // µs in the property, ns here
+    // max frames per second, 0 for no limit. a frame is 10 bytes, about 5 ms at 19200 baud
+    private final int maxRate = Integer.getInteger("serial.maxrate", 150); // Hz
+    private final long minInterval = maxRate > 0 ? 1000000000L / maxRate : 0; // ns
+    private final long idleTimeout = 100000000L; // ns, to check if the thread should stop
+    private final long statsInterval = 10000000000L; // ns
+    private volatile long writes;
+    private volatile long coalesced;
 
     /**
      * create a new SerialWriter
@@ -34,31 +46,85 @@ public class SerialWriter implements Runnable {
         this.out = out;
         this.datahandler = datahandler;
         this.semaphore = semaphore;
+        this.payload = new byte[SerialFrame.PAYLOAD_LENGTH];
+        this.frame = new byte[SerialFrame.FRAME_LENGTH];
     }
 
     /**
-     * start the SerialWriter
+     * start the SerialWriter. waits for a change of the data to the arduino,
+     * lets a burst of changes settle for coalesceDelay and writes one frame
+     * with the latest data, at most maxRate frames per second
      */
     public void run() {
+        long written = datahandler.getCommandVersion();
+        long lastWrite = System.nanoTime() - minInterval;
+        long lastStats = System.nanoTime();
         try {
-            // checking a boolean is considerd safa outside sync methods
-            while (datahandler.shouldThreadRun()) {
+            while (datahandler.shouldThreadRun() && !Thread.currentThread().isInterrupted()) {
+                long version = datahandler.awaitCommandChange(written, idleTimeout);
+                long now = System.nanoTime();
+                if (version != written) {
+                    long writeAt = Math.max(now + coalesceDelay, lastWrite + minInterval);
+                    while ((now = System.nanoTime()) < writeAt) {
+                        LockSupport.parkNanos(this, writeAt - now);
+                    }
 
-                if (datahandler.checkSendDataAvailable()) {
                     acquire();
-                    byte[] sendByte = datahandler.getDataFromController();
-                    
+                    version = datahandler.getCommandVersion();
+                    // copy while the semaphore is held, the controller changes the array
+                    System.arraycopy(datahandler.getDataFromController(), 0, payload, 0, payload.length);
+                    long captureTime = datahandler.getCommandCaptureTime();
+                    long commandTime = datahandler.getCommandTime();
+                    // the stamp belongs to this write only
+                    datahandler.setCommandStamp(0, 0);
                     release();
-                    System.out.println(Arrays.toString(sendByte) + " TO SERIAL");
-                    this.out.write(sendByte);
+
+                    coalesced += version - written - 1;
+                    written = version;
+                    writes++;
+                    lastWrite = now;
+
+                    EventLog.logBytes(EventLog.DEBUG, "{b} TO SERIAL", payload, payload.length);
+                    int length = SerialFrame.encode(payload, frame);
+                    long writeStart = System.nanoTime();
+                    this.out.write(frame, 0, length);
                     this.out.flush();
+                    datahandler.getSerialStatistics().frameWritten(payload[Protocol.REQUEST_FEEDBACK.getValue()], length, writeStart);
+                    datahandler.getLatencyTracer().writtenToSerial(payload[Protocol.REQUEST_FEEDBACK.getValue()]);
+                    if (captureTime != 0) {
+                        datahandler.getLatencyTracer().visionWritten(captureTime, commandTime);
+                    }
+                }
+                if (now - lastStats >= statsInterval) {
+                    EventLog.log(EventLog.INFO, "SERIAL WRITER: frames written {}, updates coalesced {}", writes, coalesced);
+                    lastStats = now;
                 }
             }
+        } catch (ClosedChannelException e) {
+            // the transport was closed by disconnect
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * number of frames written since the start
+     *
+     * @return frames
+     */
+    public long getWrites() {
+        return writes;
+    }
+
+    /**
+     * number of changes that went out in the same frame as a later change
+     *
+     * @return changes
+     */
+    public long getCoalesced() {
+        return coalesced;
+    }
+
     /**
      * acquire the semaphore
      */
@@ -0,0 +1,190 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+/**
+ * SubscriberRegistry class. keeps track of every GUI that wants telemetry and
+ * video. a subscriber holds a lease that is renewed by every datagram it sends
+ * (control frames or heartbeats), and is removed when the lease runs out.
+ *
+ * readers get an immutable snapshot array, so the sending threads can fan out
+ * to all subscribers without locking or allocating
+ */
+public class SubscriberRegistry {
+
+    /**
+     * one receiver of telemetry and video
+     */
+    public static class Subscriber {
+
+        private final InetAddress address;
+        private final InetSocketAddress telemetryAddress;
+        private final InetSocketAddress videoAddress;
+        private volatile long leaseExpires;
+
+        private Subscriber(InetAddress address, int telemetryPort, int videoPort) {
+            this.address = address;
+            this.telemetryAddress = new InetSocketAddress(address, telemetryPort);
+            this.videoAddress = new InetSocketAddress(address, videoPort);
+        }
+
+        public InetAddress getAddress() {
+            return address;
+        }
+
+        public InetSocketAddress getTelemetryAddress() {
+            return telemetryAddress;
+        }
+
+        public InetSocketAddress getVideoAddress() {
+            return videoAddress;
+        }
+    }
+
+    private final int telemetryPort;
+    private final int videoPort;
+    private final long defaultLease;
+
+    private volatile Subscriber[] subscribers = new Subscriber[0];
+
+    /**
+     * create a new registry
+     *
+     * @param telemetryPort port the GUI receives telemetry on
+     * @param videoPort port the GUI receives video on
+     * @param defaultLeaseMillis lease given when the subscriber does not ask
+     * for one
+     */
+    public SubscriberRegistry(int telemetryPort, int videoPort, long defaultLeaseMillis) {
+        this.telemetryPort = telemetryPort;
+        this.videoPort = videoPort;
+        this.defaultLease = defaultLeaseMillis * 1000000L;
+    }
+
+    /**
+     * renew the lease of a subscriber with the default lease, adds it if it is
+     * new
+     *
+     * @param address address of the subscriber
+     * @return true if the subscriber is new
+     */
+    public boolean renew(InetAddress address) {
+        return this.renew(address, defaultLease);
+    }
+
+    /**
+     * renew the lease of a subscriber, adds it if it is new. a lease of zero
+     * removes the subscriber
+     *
+     * @param address address of the subscriber
+     * @param leaseNanos length of the lease
+     * @return true if the subscriber is new
+     */
+    public boolean renew(InetAddress address, long leaseNanos) {
+        if (leaseNanos <= 0) {
+            this.remove(address);
+            return false;
+        }
+        long expires = System.nanoTime() + leaseNanos;
+
+        // common case, no lock and no allocation
+        Subscriber[] current = subscribers;
+        for (Subscriber s : current) {
+            if (s.address.equals(address)) {
+                s.leaseExpires = expires;
+                return false;
+            }
+        }
+
+        synchronized (this) {
+            current = subscribers;
+            for (Subscriber s : current) {
+                if (s.address.equals(address)) {
+                    s.leaseExpires = expires;
+                    return false;
+                }
+            }
+            Subscriber added = new Subscriber(address, telemetryPort, videoPort);
+            added.leaseExpires = expires;
+            Subscriber[] next = new Subscriber[current.length + 1];
+            System.arraycopy(current, 0, next, 0, current.length);
+            next[current.length] = added;
+            subscribers = next;
+        }
+        EventLog.log(EventLog.INFO, "Subscriber added: {o}", address);
+        return true;
+    }
+
+    /**
+     * remove a subscriber
+     *
+     * @param address address of the subscriber
+     */
+    public synchronized void remove(InetAddress address) {
+        Subscriber[] current = subscribers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].address.equals(address)) {
+                Subscriber[] next = new Subscriber[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                subscribers = next;
+                EventLog.log(EventLog.INFO, "Subscriber removed: {o}", address);
+                return;
+            }
+        }
+    }
+
+    /**
+     * remove all subscribers with an expired lease
+     *
+     * @return number of removed subscribers
+     */
+    public synchronized int expire() {
+        long now = System.nanoTime();
+        Subscriber[] current = subscribers;
+        int alive = 0;
+        for (Subscriber s : current) {
+            if (s.leaseExpires - now > 0) {
+                alive++;
+            }
+        }
+        if (alive == current.length) {
+            return 0;
+        }
+        Subscriber[] next = new Subscriber[alive];
+        int i = 0;
+        for (Subscriber s : current) {
+            if (s.leaseExpires - now > 0) {
+                next[i++] = s;
+            } else {
+                EventLog.log(EventLog.INFO, "Subscriber expired: {o}", s.address);
+            }
+        }
+        subscribers = next;
+        return current.length - alive;
+    }
+
+    /**
+     * get the current subscribers. the array must not be modified
+     *
+     * @return snapshot of the subscribers
+     */
+    public Subscriber[] getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * check if anyone is subscribed
+     *
+     * @return true if there are no subscribers
+     */
+    public boolean isEmpty() {
+        return subscribers.length == 0;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+/**
+ * TargetPredictor class. constant velocity Kalman filter on the target
+ * angle from the tracker.
+ *
+ * the state is the angle and its rate of change. every measurement is
+ * applied at the time the frame was captured, so old frames are weighted
+ * correctly, and the angle can be predicted at any later time, e.g. when a
+ * motor command takes effect. when the target is not seen the filter
+ * coasts on the last estimate until coastTime has passed since the last
+ * measurement.
+ *
+ * a measurement far outside the prediction is rejected; if the next one is
+ * too, the filter starts over from it (the tracker switched target). not
+ * thread safe, owned by the scheduler
+ */
+public class TargetPredictor {
+
+    private final double processNoise; // deg^2/s^3, how fast the rate can change
+    private final double measurementNoise; // deg^2
+    private final long coastTime; // ns
+    private final double gate; // max innovation in standard deviations
+
+    // state and covariance
+    private double angle;
+    private double rate; // deg/s
+    private double p00;
+    private double p01;
+    private double p11;
+    private long time; // ns, time of the state
+    private long lastMeasurement; // ns
+    private boolean initialized;
+    private int rejectedInRow;
+
+    private long updates;
+    private long rejected;
+    private long restarts;
+
+    /**
+     * create a predictor
+     *
+     * @param processNoise spectral density of the angular acceleration, deg^2/s^3
+     * @param measurementNoise variance of a measured angle, deg^2
+     * @param coastTime time to keep predicting without measurements, ns
+     */
+    public TargetPredictor(double processNoise, double measurementNoise, long coastTime) {
+        this.processNoise = processNoise;
+        this.measurementNoise = measurementNoise;
+        this.coastTime = coastTime;
+        this.gate = 4.0;
+    }
+
+    /**
+     * apply a measured angle
+     *
+     * @param measured the angle
+     * @param captureTime when the frame was captured, System.nanoTime()
+     */
+    public void update(double measured, long captureTime) {
+        if (!initialized || captureTime - lastMeasurement > coastTime) {
+            this.restart(measured, captureTime);
+            return;
+        }
+        if (captureTime > time) {
+            this.advance(captureTime);
+        }
+
+        double innovation = measured - angle;
+        double s = p00 + measurementNoise;
+        if (innovation * innovation > gate * gate * s) {
+            rejected++;
+            if (++rejectedInRow >= 2) {
+                this.restart(measured, captureTime);
+            }
+            return;
+        }
+        rejectedInRow = 0;
+
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        angle += k0 * innovation;
+        rate += k1 * innovation;
+        double n00 = (1 - k0) * p00;
+        double n01 = (1 - k0) * p01;
+        double n11 = p11 - k1 * p01;
+        p00 = n00;
+        p01 = n01;
+        p11 = n11;
+        lastMeasurement = captureTime;
+        updates++;
+    }
+
+    /*
+    * start over from one measurement, the rate is unknown
+    */
+    private void restart(double measured, long captureTime) {
+        angle = measured;
+        rate = 0;
+        p00 = measurementNoise;
+        p01 = 0;
+        p11 = 100.0 * 100.0; // up to about 100 deg/s
+        time = captureTime;
+        lastMeasurement = captureTime;
+        initialized = true;
+        rejectedInRow = 0;
+        restarts++;
+        updates++;
+    }
+
+    /*
+    * move the state forward in time
+    */
+    private void advance(long to) {
+        double dt = (to - time) / 1e9;
+        angle += rate * dt;
+        // P = F P F' + Q, F = [1 dt; 0 1]
+        double n00 = p00 + 2 * dt * p01 + dt * dt * p11;
+        double n01 = p01 + dt * p11;
+        double dt2 = dt * dt;
+        p00 = n00 + processNoise * dt2 * dt / 3;
+        p01 = n01 + processNoise * dt2 / 2;
+        p11 = p11 + processNoise * dt;
+        time = to;
+    }
+
+    /**
+     * whether the target was measured within coastTime
+     *
+     * @param now System.nanoTime()
+     * @return true if predict can be used
+     */
+    public boolean isTracking(long now) {
+        return initialized && now - lastMeasurement <= coastTime;
+    }
+
+    /**
+     * the predicted angle at a time, the state is not changed
+     *
+     * @param at System.nanoTime() of the prediction
+     * @return the angle
+     */
+    public double predict(long at) {
+        return angle + rate * (at - time) / 1e9;
+    }
+
+    /**
+     * the last angle the filter coasted to, predicted at the end of
+     * coastTime. the side to search for a lost target, unlike predict(now)
+     * it does not keep growing with the time since the target was seen
+     *
+     * @return the angle
+     */
+    public double getLastCoastedAngle() {
+        return this.predict(lastMeasurement + coastTime);
+    }
+
+    /**
+     * the estimated rate of change of the angle
+     *
+     * @return deg/s
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public long getUpdates() {
+        return updates;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getRestarts() {
+        return restarts;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TelemetryStreamer class, extends TimerTask. samples the state of the vehicle
+ * at a fixed rate and pushes the samples to the GUI, several samples per
+ * datagram.
+ *
+ * Overview packet: Byte 0: 'T' Byte 1: number of samples Byte 2-3: packet
+ * sequence number, followed by the samples.
+ *
+ * Sample: Byte 0-3: time in ms since the server started Byte 4-5: x angle *
+ * 100 Byte 6-7: y angle * 100 Byte 8: distance sensor Byte 9: left motor speed
+ * Byte 10: right motor speed Byte 11: bit 0 - auto/manual bit 1 - start Byte
+ * 12-13: PID output * 100. all values are big endian.
+ */
+public class TelemetryStreamer extends TimerTask {
+
+    public static final byte PACKET_TYPE = 'T';
+    public static final int HEADER_LENGTH = 4;
+    public static final int SAMPLE_LENGTH = 14;
+
+    private final DataHandler dh;
+    private final Semaphore semaphore;
+    private final UDPServer server;
+    private final SubscriberRegistry subscribers;
+    private final int samplesPerPacket;
+
+    private final byte[] packet;
+    private final long startTime;
+    private int samples;
+    private short sequence;
+
+    /**
+     * create a new TelemetryStreamer
+     *
+     * @param dh the shared resource
+     * @param semaphore semaphore object
+     * @param server the server that sends the packets
+     * @param subscribers the receivers of the packets
+     * @param samplesPerPacket number of samples batched in one datagram,
+     * limited to what fits in a datagram of the server
+     */
+    public TelemetryStreamer(DataHandler dh, Semaphore semaphore, UDPServer server,
+            SubscriberRegistry subscribers, int samplesPerPacket) {
+        this.dh = dh;
+        this.semaphore = semaphore;
+        this.server = server;
+        this.subscribers = subscribers;
+        int maxSamples = Math.min(255, (server.getMaxDatagramLength() - HEADER_LENGTH) / SAMPLE_LENGTH);
+        if (samplesPerPacket > maxSamples) {
+            EventLog.log(EventLog.WARN, "TELEMETRY {} samples per packet do not fit in a datagram, using {}",
+                    samplesPerPacket, maxSamples);
+        }
+        this.samplesPerPacket = Math.max(1, Math.min(samplesPerPacket, maxSamples));
+        this.packet = new byte[HEADER_LENGTH + this.samplesPerPacket * SAMPLE_LENGTH];
+        this.startTime = System.currentTimeMillis();
+    }
+
+    /**
+     * take one sample, send the packet when it is full
+     */
+    @Override
+    public void run() {
+        if (subscribers.isEmpty()) {
+            samples = 0;
+            return;
+        }
+
+        int offset = HEADER_LENGTH + samples * SAMPLE_LENGTH;
+        int time = (int) (System.currentTimeMillis() - startTime);
+
+        acquire();
+        int xAngle = (int) (100.0f * dh.getPixyXvalue());
+        int yAngle = (int) (100.0f * dh.getPixyYvalue());
+        byte distance = (byte) dh.getDistanceSensor();
+        byte leftSpeed = dh.getToArduinoByte(Protocol.LEFT_MOTOR_SPEED.getValue());
+        byte rightSpeed = dh.getToArduinoByte(Protocol.RIGHT_MOTOR_SPEED.getValue());
+        byte commands = dh.getToArduinoByte(Protocol.COMMANDS.getValue());
+        int pidOutput = (int) (100.0 * dh.getPidOutput());
+        release();
+
+        byte mode = (byte) (((commands >> Protocol.commands.AUTO_MANUAL.getValue()) & 1)
+                | (((commands >> Protocol.commands.START.getValue()) & 1) << 1));
+
+        putInt(offset, time);
+        putShort(offset + 4, xAngle);
+        putShort(offset + 6, yAngle);
+        packet[offset + 8] = distance;
+        packet[offset + 9] = leftSpeed;
+        packet[offset + 10] = rightSpeed;
+        packet[offset + 11] = mode;
+        putShort(offset + 12, pidOutput);
+        samples++;
+
+        if (samples == samplesPerPacket) {
+            this.send();
+        }
+    }
+
+    /**
+     * fill in the header and queue the packet
+     */
+    private void send() {
+        packet[0] = PACKET_TYPE;
+        packet[1] = (byte) samples;
+        putShort(2, sequence++);
+        server.udpSend(packet, 0, HEADER_LENGTH + samples * SAMPLE_LENGTH);
+        samples = 0;
+    }
+
+    /**
+     * write a 16 bit value, big endian. larger values are clamped
+     */
+    private void putShort(int offset, int value) {
+        if (value > Short.MAX_VALUE) {
+            value = Short.MAX_VALUE;
+        } else if (value < Short.MIN_VALUE) {
+            value = Short.MIN_VALUE;
+        }
+        packet[offset] = (byte) (value >>> 8);
+        packet[offset + 1] = (byte) value;
+    }
+
+    /**
+     * write a 32 bit value, big endian
+     */
+    private void putInt(int offset, int value) {
+        packet[offset] = (byte) (value >>> 24);
+        packet[offset + 1] = (byte) (value >>> 16);
+        packet[offset + 2] = (byte) (value >>> 8);
+        packet[offset + 3] = (byte) value;
+    }
+
+    /**
+     * acquire the semaphore
+     */
+    private void acquire() {
+        try {
+            semaphore.acquire();
+
+        } catch (InterruptedException ex) {
+            Logger.getLogger(TelemetryStreamer.class.getName()).log(Level.SEVERE, null, ex);
+        }
+    }
+
+    /**
+     * release the semaphore
+     */
+    private void release() {
+        semaphore.release();
+    }
+}
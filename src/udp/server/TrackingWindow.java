@@ -0,0 +1,178 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+/**
+ * TrackingWindow class. decides which part of the next camera frame the
+ * tracker looks at.
+ *
+ * while the target is found the tracker only processes a window around the
+ * position the target is expected at in the next frames. when the target is
+ * lost the window grows, then the tracker scans the whole frame at half
+ * resolution, and if that does not find it either, the whole frame at full
+ * resolution until the target is found again.
+ *
+ * the blob analysis stage updates the window and the preprocessing stage
+ * reads it. the window is packed in one volatile long so it is always read
+ * whole, use the static getters to unpack it
+ */
+public class TrackingWindow {
+
+    public static final int FULL = 0;
+    public static final int DOWNSCALED = 1;
+    public static final int WINDOW = 2;
+
+    private static final int BITS = 12;
+    private static final long MASK = (1 << BITS) - 1;
+
+    private final int minWidth;
+    private final int minHeight;
+    private final double radiusFactor; // window size in target radii
+    private final int lead; // frames the window is moved ahead of the target
+    private final int growSteps; // misses the window grows before a downscaled scan
+    private final int downscaledSteps; // downscaled scans before a full scan
+
+    private volatile long window;
+
+    // owned by the thread that calls found and lost
+    private int misses;
+    private boolean hasLast;
+    private double lastX;
+    private double lastY;
+    private long lastSequence;
+    private double velocityX; // pixels per frame
+    private double velocityY;
+    private double centerX;
+    private double centerY;
+    private double width;
+    private double height;
+
+    /**
+     * create a window that starts with a full scan
+     *
+     * @param minWidth smallest window width in pixels
+     * @param minHeight smallest window height in pixels
+     */
+    public TrackingWindow(int minWidth, int minHeight) {
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+        this.radiusFactor = 6.0;
+        this.lead = 2;
+        this.growSteps = 2;
+        this.downscaledSteps = 3;
+        this.window = pack(FULL, 0, 0, 0, 0);
+        this.misses = growSteps + downscaledSteps;
+    }
+
+    /**
+     * the target was found, centre the window on where it will be
+     *
+     * @param x target x in the full frame
+     * @param y target y in the full frame
+     * @param radius target radius in pixels
+     * @param sequence sequence number of the frame
+     * @param frameWidth width of the full frame
+     * @param frameHeight height of the full frame
+     */
+    public void found(double x, double y, double radius, long sequence, int frameWidth, int frameHeight) {
+        if (hasLast && sequence > lastSequence && misses == 0) {
+            double frames = sequence - lastSequence;
+            velocityX = (x - lastX) / frames;
+            velocityY = (y - lastY) / frames;
+        } else {
+            velocityX = 0;
+            velocityY = 0;
+        }
+        hasLast = true;
+        lastX = x;
+        lastY = y;
+        lastSequence = sequence;
+        misses = 0;
+
+        centerX = x + velocityX * lead;
+        centerY = y + velocityY * lead;
+        width = Math.max(minWidth, radiusFactor * radius + 2 * Math.abs(velocityX) * lead);
+        height = Math.max(minHeight, radiusFactor * radius + 2 * Math.abs(velocityY) * lead);
+        this.publishWindow(frameWidth, frameHeight);
+    }
+
+    /**
+     * the target was not in the window
+     *
+     * @param frameWidth width of the full frame
+     * @param frameHeight height of the full frame
+     */
+    public void lost(int frameWidth, int frameHeight) {
+        misses++;
+        if (misses <= growSteps && hasLast) {
+            width *= 2;
+            height *= 2;
+            if (width < frameWidth || height < frameHeight) {
+                this.publishWindow(frameWidth, frameHeight);
+                return;
+            }
+            // the window covers the frame, go on with the downscaled scan
+            misses = growSteps + 1;
+        }
+        if (misses <= growSteps + downscaledSteps) {
+            window = pack(DOWNSCALED, 0, 0, frameWidth, frameHeight);
+        } else {
+            window = pack(FULL, 0, 0, frameWidth, frameHeight);
+        }
+    }
+
+    /*
+    * clamp the window to the frame and publish it, a window as big as the
+    * frame is a full scan
+    */
+    private void publishWindow(int frameWidth, int frameHeight) {
+        int w = (int) Math.min(width, frameWidth);
+        int h = (int) Math.min(height, frameHeight);
+        if (w >= frameWidth && h >= frameHeight) {
+            window = pack(FULL, 0, 0, frameWidth, frameHeight);
+            return;
+        }
+        int x = (int) Math.round(centerX - w / 2.0);
+        int y = (int) Math.round(centerY - h / 2.0);
+        x = Math.max(0, Math.min(frameWidth - w, x));
+        y = Math.max(0, Math.min(frameHeight - h, y));
+        window = pack(WINDOW, x, y, w, h);
+    }
+
+    /**
+     * the current window, unpack it with the static getters
+     *
+     * @return the packed window
+     */
+    public long get() {
+        return window;
+    }
+
+    private static long pack(int mode, int x, int y, int w, int h) {
+        return ((long) mode << (4 * BITS)) | ((x & MASK) << (3 * BITS)) | ((y & MASK) << (2 * BITS))
+                | ((w & MASK) << BITS) | (h & MASK);
+    }
+
+    public static int getMode(long window) {
+        return (int) (window >>> (4 * BITS));
+    }
+
+    public static int getX(long window) {
+        return (int) ((window >>> (3 * BITS)) & MASK);
+    }
+
+    public static int getY(long window) {
+        return (int) ((window >>> (2 * BITS)) & MASK);
+    }
+
+    public static int getWidth(long window) {
+        return (int) ((window >>> BITS) & MASK);
+    }
+
+    public static int getHeight(long window) {
+        return (int) (window & MASK);
+    }
+}
@@ -7,95 +7,556 @@ package udp.server;
 
 import java.io.IOException;
 import java.net.*;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
- * UDPServer class. handles sending data to and from a client GUI
+ * UDPServer class. handles sending data to and from a client GUI. receiving
+ * and sending is done by one selector loop on a non-blocking DatagramChannel,
+ * outgoing datagrams are queued in preallocated direct buffers and sent to
+ * every subscriber in the SubscriberRegistry.
+ *
+ * a GUI that only wants to watch sends a heartbeat instead of control frames:
+ * Byte 0: 'S', Byte 1 (optional): lease in seconds, 0 unsubscribes
+ *
+ * control frames are 11 bytes, optionally followed by Byte 11-14: sequence
+ * number and Byte 15-18: GUI send time in ms, big endian. all waiting frames
+ * are read at once and only the newest one is applied, see ControlSequencer
+ *
+ * when the Arduino echoes a request code from the GUI, an echo is sent:
+ * Byte 0: 'E' Byte 1: request code Byte 2-5: GUI send time from the control
+ * frame Byte 6-9: time spent in the server and the Arduino in microseconds.
+ * a datagram with Byte 0: 'L' asks for a latency report, it is answered to
+ * the sender only: Byte 0: 'L' followed
+ * by count, p50, p99 and max in microseconds (4 bytes each) for every
+ * LatencyTracer.Hop, then every LatencyTracer.VisionHop and then the serial
+ * echo round trip, flush time and read gap of SerialLinkStatistics (last ten
+ * seconds)
+ *
+ * the GUI reports loss in the video stream with Byte 0: 'Q' Byte 1: lost
+ * fragments in percent, see VideoQualityGovernor
  * @author Eivind Fugledal
  */
 public class UDPServer implements Runnable {
 
-    private DatagramSocket serverSocket;
+    private DatagramChannel channel;
+    // read by udpSend on the controller and camera threads
+    private volatile Selector selector;
+    private SelectionKey key;
+    private volatile Thread loopThread;
 
     private final int serverPort = 9876;
 
-    private boolean hasReceivedSomething = false;
+    private static final byte HEARTBEAT = 'S';
+    private static final byte ECHO = 'E';
+    private static final byte LATENCY_REPORT = 'L';
+    private static final byte VIDEO_LOSS = 'Q';
+
+    private final int controlFrameLength = 11;
+    private final int sequencedFrameLength = 19;
+    private final int maxControlDelay = 250; // ms
+    private final int maxDatagramLength = 512;
+    private final int sendSlots = 16;
+    private final long selectTimeout = 100; // ms
+    private final long statsInterval = 10000000000L; // ns
+
+    private final long expireInterval = 1000000000L; // ns
+    private long lastExpire;
+
     private byte lastRequestCodeFromGui;
 
     private final Semaphore semaphore;
     private final DataHandler dh;
-
-    public UDPServer(Semaphore semaphore, DataHandler dh) {
+    private final SubscriberRegistry subscribers;
+    private final VideoQualityGovernor governor;
+
+    // receive path
+    private final ByteBuffer receiveBuffer;
+    private final byte[] receiveData;
+    private final ControlSequencer sequencer;
+    private boolean hasPendingControl;
+    private boolean pendingSequenced;
+    private int pendingSequence;
+    private int pendingSentMillis;
+    private long pendingDelay;
+    private long pendingReceivedAt;
+    private byte lastTracedRequestCode;
+
+    // latency tracing
+    private final LatencyTracer tracer;
+    private final byte[] echoPacket;
+    private final byte[] reportPacket;
+
+    // send path, a ring of preallocated buffers guarded by sendLock
+    private final Object sendLock = new Object();
+    private final ByteBuffer[] sendBuffers;
+    private final long[] sendEnqueued;
+    // per slot: the only receiver (null for all subscribers), and for an echo
+    // the receive time of its control frame and the echo time, 0 otherwise
+    private final SocketAddress[] sendAddress;
+    private final long[] sendTraceReceived;
+    private final long[] sendTraceEchoed;
+    private int sendHead;
+    private int sendCount;
+    private int sendTarget; // next subscriber of the head slot
+    // subscribers of the head slot, kept until all of them have the datagram
+    private SubscriberRegistry.Subscriber[] sendTargets;
+
+    // statistics
+    private final AtomicLong packetsReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong packetsSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong sendsDropped = new AtomicLong();
+    // failed receive and send calls, the loop goes on after them
+    private final AtomicLong receiveErrors = new AtomicLong();
+    private final AtomicLong sendErrors = new AtomicLong();
+    private long lastStatsReceiveErrors;
+    private long lastStatsSendErrors;
+    private final LatencyHistogram sendLatency = new LatencyHistogram();
+    private final LatencyHistogram receiveLatency = new LatencyHistogram();
+    private long lastStatsTime;
+    private long lastStatsPacketsReceived;
+    private long lastStatsPacketsSent;
+
+    public UDPServer(Semaphore semaphore, DataHandler dh, SubscriberRegistry subscribers, VideoQualityGovernor governor) {
         this.semaphore = semaphore;
         this.dh = dh;
+        this.subscribers = subscribers;
+        this.governor = governor;
+
+        this.receiveBuffer = ByteBuffer.allocateDirect(maxDatagramLength);
+        this.receiveData = new byte[controlFrameLength];
+        this.sequencer = new ControlSequencer(maxControlDelay);
+
+        this.tracer = dh.getLatencyTracer();
+        this.echoPacket = new byte[10];
+        this.reportPacket = new byte[1 + (LatencyTracer.Hop.values().length + LatencyTracer.VisionHop.values().length + 3) * 16];
+        this.tracer.setEchoListener(this::sendEcho);
+
+        this.sendBuffers = new ByteBuffer[sendSlots];
+        this.sendEnqueued = new long[sendSlots];
+        this.sendAddress = new SocketAddress[sendSlots];
+        this.sendTraceReceived = new long[sendSlots];
+        this.sendTraceEchoed = new long[sendSlots];
+        for (int i = 0; i < sendSlots; i++) {
+            this.sendBuffers[i] = ByteBuffer.allocateDirect(maxDatagramLength);
+        }
     }
 
     /**
-     * Receives data from client, then sends it to the data handler
+     * Receives data from client, then sends it to the data handler. also
+     * writes queued datagrams to the GUI
      *
      */
     @Override
     public void run() {
         try {
-            serverSocket = new DatagramSocket(serverPort);
-
-            byte[] receiveData = new byte[11];
+            loopThread = Thread.currentThread();
+            selector = Selector.open();
+            channel = DatagramChannel.open();
+            channel.bind(new InetSocketAddress(serverPort));
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ);
+            lastStatsTime = System.nanoTime();
 
             while (dh.shouldThreadRun()) {
-                DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-                serverSocket.receive(receivePacket);
-                //guiIp = receivePacket.getAddress();
-                Main.ipAdress = receivePacket.getAddress().getHostAddress();
-
-                System.out.println(Arrays.toString(receiveData) + " FROM GUI, with ip: " + Main.ipAdress);
-
-                this.setDataToDatahandler(receiveData);
-                hasReceivedSomething = true;
+                selector.select(selectTimeout);
+                selector.selectedKeys().clear();
 
-                this.checkForSendingToGUI();
+                this.receiveAll();
+                this.expireSubscribers();
+                this.flushSendQueue();
+                this.reportStatistics();
             }
-        } catch (SocketException ex) {
+        } catch (IOException ex) {
             System.out.println("Exception-.-.-.-.-.-.-.-.-.-.-.-");
             Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+        } finally {
+            this.close();
+        }
+    }
+
+    /**
+     * read every datagram waiting on the channel, then apply the newest
+     * control frame. a failed receive is counted and the rest is read on the
+     * next pass of the loop
+     */
+    private void receiveAll() {
+        SocketAddress source;
+        receiveBuffer.clear();
+        while ((source = this.receive()) != null) {
+            long receivedAt = System.nanoTime();
+            receiveBuffer.flip();
+            int length = receiveBuffer.remaining();
+            packetsReceived.incrementAndGet();
+            bytesReceived.addAndGet(length);
+
+            InetAddress address = ((InetSocketAddress) source).getAddress();
+
+            if (length >= controlFrameLength) {
+                subscribers.renew(address);
+                this.offerControlFrame(address, length, receivedAt);
+            } else if (length >= 1 && receiveBuffer.get(0) == HEARTBEAT) {
+                if (length >= 2) {
+                    subscribers.renew(address, (receiveBuffer.get(1) & 0xFF) * 1000000000L);
+                } else {
+                    subscribers.renew(address);
+                }
+            } else if (length >= 1 && receiveBuffer.get(0) == LATENCY_REPORT) {
+                this.sendLatencyReport(source);
+            } else if (length >= 2 && receiveBuffer.get(0) == VIDEO_LOSS) {
+                governor.lossReported(receiveBuffer.get(1) & 0xFF);
+            }
+            receiveBuffer.clear();
+        }
+
+        if (hasPendingControl) {
+            this.applyControlFrame();
+        }
+    }
 
+    /**
+     * receive one datagram into receiveBuffer
+     *
+     * @return the sender, null if nothing is waiting or the receive failed
+     */
+    private SocketAddress receive() {
+        try {
+            return channel.receive(receiveBuffer);
         } catch (IOException ex) {
-            System.out.println("Exception-.-.-.-.-.-.-.-.-.-.-.-");
-            Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+            // the first error of a statistics interval is logged, the
+            // count is in the statistics
+            if (receiveErrors.incrementAndGet() == lastStatsReceiveErrors + 1) {
+                EventLog.log(EventLog.WARN, "UDP RECEIVE FAILED {o}", ex);
+            }
+            receiveBuffer.clear();
+            return null;
         }
     }
 
     /**
-     * starts a new thread and sends data to GUI controller will not block
-     * receiving thread in this way
+     * keep a received control frame if it is newer than the one already
+     * pending. frames without a sequence number are taken when their GUI owns control
+     *
+     * @param address the sender
+     * @param length length of the datagram
+     * @param receivedAt time of receive from System.nanoTime()
+     */
+    private void offerControlFrame(InetAddress address, int length, long receivedAt) {
+        boolean sequenced = length >= sequencedFrameLength;
+        int sequence = 0;
+        int sentMillis = 0;
+        long delay = -1;
+        if (!sequenced && !sequencer.isFromOwner(address, System.currentTimeMillis())) {
+            return;
+        }
+        if (sequenced) {
+            sequence = receiveBuffer.getInt(controlFrameLength);
+            sentMillis = receiveBuffer.getInt(controlFrameLength + 4);
+            if (!sequencer.isCurrent(address, sequence, sentMillis, System.currentTimeMillis())) {
+                return;
+            }
+            // the delay of this frame, kept only if this frame is kept
+            delay = sequencer.getLastDelay();
+            if (hasPendingControl && pendingSequenced && sequence - pendingSequence <= 0) {
+                // reordered inside the batch, the pending frame is newer
+                sequencer.superseded();
+                return;
+            }
+        }
+        if (hasPendingControl) {
+            sequencer.superseded();
+        }
+        receiveBuffer.get(receiveData, 0, controlFrameLength);
+        hasPendingControl = true;
+        pendingSequenced = sequenced;
+        pendingSequence = sequence;
+        pendingSentMillis = sentMillis;
+        pendingDelay = delay;
+        pendingReceivedAt = receivedAt;
+    }
+
+    /**
+     * apply the pending control frame to the data handler
+     */
+    private void applyControlFrame() {
+        hasPendingControl = false;
+        if (pendingSequenced) {
+            sequencer.applied(pendingSequence);
+        }
+
+        EventLog.logBytes(EventLog.DEBUG, "{b} FROM GUI", receiveData, receiveData.length);
+
+        byte requestCode = receiveData[Protocol.REQUEST_FEEDBACK.getValue()];
+        if (requestCode != lastTracedRequestCode) {
+            tracer.receivedFromGui(requestCode, pendingReceivedAt, pendingSentMillis, pendingDelay);
+            lastTracedRequestCode = requestCode;
+        }
+
+        this.setDataToDatahandler(receiveData);
+
+        this.checkForSendingToGUI();
+        receiveLatency.recordSince(pendingReceivedAt);
+    }
+
+    /**
+     * send an echo of a request code to the GUI. called from the serial reader
+     * thread by the LatencyTracer
+     *
+     * @param requestCode the echoed request code
+     * @param guiSentMillis GUI send time of the control frame
+     * @param receivedAt UDP receive time of the control frame
+     * @param echoedAt time of the echo from the Arduino
+     */
+    private void sendEcho(byte requestCode, int guiSentMillis, long receivedAt, long echoedAt) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        echoPacket[0] = ECHO;
+        echoPacket[1] = requestCode;
+        putInt(echoPacket, 2, guiSentMillis);
+        putInt(echoPacket, 6, (int) Math.min((echoedAt - receivedAt) / 1000, Integer.MAX_VALUE));
+        // the tracer gets the send time from flushSendQueue
+        this.enqueue(echoPacket, 0, echoPacket.length, null, receivedAt, echoedAt);
+    }
+
+    /**
+     * send the latency histograms of the LatencyTracer to the GUI that asked
+     *
+     * @param target the address of the request
+     */
+    private void sendLatencyReport(SocketAddress target) {
+        reportPacket[0] = LATENCY_REPORT;
+        int offset = 1;
+        for (LatencyTracer.Hop hop : LatencyTracer.Hop.values()) {
+            offset = putHistogram(reportPacket, offset, tracer.getHistogram(hop));
+        }
+        for (LatencyTracer.VisionHop hop : LatencyTracer.VisionHop.values()) {
+            offset = putHistogram(reportPacket, offset, tracer.getVisionHistogram(hop));
+        }
+        SerialLinkStatistics serial = dh.getSerialStatistics();
+        offset = putHistogram(reportPacket, offset, serial.getEchoRoundTrip());
+        offset = putHistogram(reportPacket, offset, serial.getFlushTime());
+        offset = putHistogram(reportPacket, offset, serial.getReadGap());
+        this.enqueue(reportPacket, 0, offset, target, 0, 0);
+    }
+
+    /**
+     * write count, p50, p99 and max in microseconds of a histogram
+     *
+     * @return offset after the histogram
+     */
+    private static int putHistogram(byte[] data, int offset, LatencyHistogram h) {
+        putInt(data, offset, (int) Math.min(h.getCount(), Integer.MAX_VALUE));
+        putInt(data, offset + 4, (int) Math.min(h.getPercentile(50) / 1000, Integer.MAX_VALUE));
+        putInt(data, offset + 8, (int) Math.min(h.getPercentile(99) / 1000, Integer.MAX_VALUE));
+        putInt(data, offset + 12, (int) Math.min(h.getMax() / 1000, Integer.MAX_VALUE));
+        return offset + 16;
+    }
+
+    /**
+     * write a 32 bit value to an array, big endian
+     */
+    private static void putInt(byte[] data, int offset, int value) {
+        data[offset] = (byte) (value >>> 24);
+        data[offset + 1] = (byte) (value >>> 16);
+        data[offset + 2] = (byte) (value >>> 8);
+        data[offset + 3] = (byte) value;
+    }
+
+    /**
+     * drop subscribers that stopped sending, checked once a second
+     */
+    private void expireSubscribers() {
+        long now = System.nanoTime();
+        if (now - lastExpire >= expireInterval) {
+            subscribers.expire();
+            lastExpire = now;
+        }
+    }
+
+    /**
+     * queues data for sending to all subscribed GUIs. the selector loop does
+     * the actual send, so the caller will never block on the socket
      *
      * @param data the data to send to GUI
      */
     public void udpSend(byte[] data) {
-        if (hasReceivedSomething) {
-            Runnable send;
-            send = () -> {
-                try {
+        this.udpSend(data, 0, data.length);
+    }
 
-                    DatagramPacket sendpacket
-                            = new DatagramPacket(data, data.length, InetAddress.getByName(Main.ipAdress), 9877);
+    /**
+     * queues part of an array for sending to all subscribed GUIs
+     *
+     * @param data the data to send to GUI
+     * @param offset start of the datagram in data
+     * @param length length of the datagram
+     */
+    public void udpSend(byte[] data, int offset, int length) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        this.enqueue(data, offset, length, null, 0, 0);
+    }
+
+    /**
+     * queue a datagram
+     *
+     * @param target the only receiver, null for all subscribers
+     * @param traceReceived for an echo the receive time of its control frame,
+     * 0 if the datagram is not traced
+     * @param traceEchoed for an echo the time of the echo from the Arduino
+     */
+    private void enqueue(byte[] data, int offset, int length, SocketAddress target, long traceReceived, long traceEchoed) {
+        if (length > maxDatagramLength) {
+            sendsDropped.incrementAndGet();
+            return;
+        }
+
+        synchronized (sendLock) {
+            if (sendCount == sendSlots) {
+                // the link is not keeping up, newest data wins
+                sendHead = (sendHead + 1) % sendSlots;
+                sendCount--;
+                sendTarget = 0;
+                sendTargets = null;
+                sendsDropped.incrementAndGet();
+            }
+            int slot = (sendHead + sendCount) % sendSlots;
+            ByteBuffer buffer = sendBuffers[slot];
+            buffer.clear();
+            buffer.put(data, offset, length);
+            buffer.flip();
+            sendEnqueued[slot] = System.nanoTime();
+            sendAddress[slot] = target;
+            sendTraceReceived[slot] = traceReceived;
+            sendTraceEchoed[slot] = traceEchoed;
+            sendCount++;
+        }
+
+        if (Thread.currentThread() != loopThread && selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * write queued datagrams to every subscriber until the queue is empty or
+     * the socket buffer is full. if it is full, wait for OP_WRITE. a send
+     * that fails, e.g. when the network is down, is counted and the
+     * datagram goes on to the next subscriber
+     */
+    private void flushSendQueue() {
+        boolean blocked = false;
+
+        synchronized (sendLock) {
+            while (sendCount > 0) {
+                ByteBuffer buffer = sendBuffers[sendHead];
+                int length = buffer.limit();
+                if (sendTargets == null) {
+                    // a blocked slot finishes with the subscribers it started
+                    // with, even if the registry changes in between
+                    sendTargets = subscribers.getSubscribers();
+                }
+                SubscriberRegistry.Subscriber[] targets = sendTargets;
+
+                // the same encoded datagram goes to every subscriber, or
+                // to the one receiver of the slot
+                SocketAddress only = sendAddress[sendHead];
+                int count = only != null ? 1 : targets.length;
+                while (sendTarget < count) {
+                    buffer.position(0);
+                    SocketAddress address = only != null ? only : targets[sendTarget].getTelemetryAddress();
+                    int sent;
                     try {
-                        serverSocket.send(sendpacket);
-                        System.out.println(Arrays.toString(data) + " TO GUI, with ip: " + Main.ipAdress);
+                        sent = channel.send(buffer, address);
                     } catch (IOException ex) {
-                        Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+                        if (sendErrors.incrementAndGet() == lastStatsSendErrors + 1) {
+                            EventLog.log(EventLog.WARN, "UDP SEND FAILED {o}", address + ": " + ex);
+                        }
+                        sendTarget++;
+                        continue;
+                    }
+                    if (sent == 0) {
+                        blocked = true;
+                        break;
                     }
-                } catch (UnknownHostException ex) {
-                    Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+                    packetsSent.incrementAndGet();
+                    bytesSent.addAndGet(length);
+                    sendTarget++;
+                }
+                if (blocked) {
+                    break;
+                }
+                sendLatency.recordSince(sendEnqueued[sendHead]);
+                if (sendTraceReceived[sendHead] != 0 && count > 0) {
+                    tracer.echoSent(sendTraceReceived[sendHead], sendTraceEchoed[sendHead]);
                 }
-            };
-            new Thread(send).start();
-        } else {
-            System.out.println("UDP is not ready. missing IP address for GUI");
+                sendAddress[sendHead] = null;
+
+                sendHead = (sendHead + 1) % sendSlots;
+                sendCount--;
+                sendTarget = 0;
+                sendTargets = null;
+            }
         }
 
+        int ops = blocked ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+        if (key.interestOps() != ops) {
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * print throughput and latency of the server at a fixed interval
+     */
+    private void reportStatistics() {
+        long now = System.nanoTime();
+        long elapsed = now - lastStatsTime;
+        if (elapsed < statsInterval) {
+            return;
+        }
+        long received = packetsReceived.get();
+        long sent = packetsSent.get();
+        double seconds = elapsed / 1e9;
+
+        EventLog.log(EventLog.INFO, "{o}", String.format("UDP in: %.1f pkt/s, out: %.1f pkt/s, dropped: %d, receive errors: %d, send errors: %d, superseded: %d, late: %d, stale: %d, rejected: %d, resyncs: %d, handle: %s, send: %s",
+                (received - lastStatsPacketsReceived) / seconds,
+                (sent - lastStatsPacketsSent) / seconds,
+                sendsDropped.get(), receiveErrors.get(), sendErrors.get(), sequencer.getSuperseded(), sequencer.getLate(), sequencer.getStale(), sequencer.getRejected(), sequencer.getResyncs(),
+                receiveLatency, sendLatency));
+        // the histograms keep changing, they are formatted here and not on the log thread
+        EventLog.log(EventLog.INFO, "vision capture to serial (10 s): {o}",
+                tracer.getVisionHistogram(LatencyTracer.VisionHop.CAPTURE_TO_SERIAL).toString());
+        EventLog.log(EventLog.INFO, "{o}", dh.getSerialStatistics().toString());
+
+        lastStatsTime = now;
+        lastStatsPacketsReceived = received;
+        lastStatsPacketsSent = sent;
+        lastStatsReceiveErrors = receiveErrors.get();
+        lastStatsSendErrors = sendErrors.get();
+    }
+
+    /**
+     * close the selector and the channel
+     */
+    private void close() {
+        try {
+            if (selector != null) {
+                selector.close();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(UDPServer.class.getName()).log(Level.SEVERE, null, ex);
+        }
     }
 
     /**
@@ -138,7 +599,7 @@ public class UDPServer implements Runnable {
             x = intToByteArray(xAngle);
             byte[] y = new byte[2];
             y = intToByteArray(yAngle);
-            System.out.println("x: " + Arrays.toString(x));
+            EventLog.log(EventLog.DEBUG, "x: {}", xAngle);
             sendData[0] = x[0];
             sendData[1] = x[1];
             sendData[2] = y[0];
@@ -166,6 +627,83 @@ public class UDPServer implements Runnable {
 
     }
 
+    //*****************************************************************
+    //********************** STATISTICS *******************************
+    /**
+     * longest datagram udpSend accepts, longer ones are dropped
+     *
+     * @return bytes
+     */
+    public int getMaxDatagramLength() {
+        return maxDatagramLength;
+    }
+
+    public long getPacketsReceived() {
+        return packetsReceived.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getPacketsSent() {
+        return packetsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getSendsDropped() {
+        return sendsDropped.get();
+    }
+
+    /**
+     * receive calls that failed, the server keeps running after them
+     *
+     * @return errors
+     */
+    public long getReceiveErrors() {
+        return receiveErrors.get();
+    }
+
+    /**
+     * datagrams that could not be sent to a subscriber because the send
+     * failed
+     *
+     * @return errors
+     */
+    public long getSendErrors() {
+        return sendErrors.get();
+    }
+
+    /**
+     * counters of applied, superseded, late, stale and rejected control frames
+     *
+     * @return the sequencer
+     */
+    public ControlSequencer getControlSequencer() {
+        return sequencer;
+    }
+
+    /**
+     * time from a datagram is received until it is handled
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getReceiveLatency() {
+        return receiveLatency;
+    }
+
+    /**
+     * time from a datagram is queued until it is written to the socket
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getSendLatency() {
+        return sendLatency;
+    }
+
     /**
      * acqure the semaphore
      */
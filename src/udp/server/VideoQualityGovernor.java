@@ -0,0 +1,165 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+/**
+ * VideoQualityGovernor class. chooses JPEG quality, resolution scale and frame
+ * rate for the camera stream, so video does not saturate the link that also
+ * carries the control packets.
+ *
+ * the settings are a ladder of levels from best to cheapest. the governor
+ * steps down one level when the stream is congested (too many bytes per
+ * second, slow sends or loss reported by the GUI) and steps up again after a
+ * period without congestion
+ */
+public class VideoQualityGovernor {
+
+    // quality (percent), scale, frame interval (ms)
+    private static final int[] QUALITY = {85, 75, 65, 65, 55, 50, 40, 30, 30};
+    private static final double[] SCALE = {1.0, 1.0, 1.0, 0.75, 0.75, 0.5, 0.5, 0.5, 0.25};
+    private static final int[] INTERVAL = {5, 5, 10, 10, 20, 20, 40, 66, 100};
+
+    private final double maxBytesPerSecond;
+    private final long maxSendNanos;
+    private final int maxLossPercent = 5;
+    private final long lossReportTimeout = 3000000000L; // ns
+    private final int framesBeforeDegrade = 10;
+    private final int framesBeforeUpgrade = 90;
+    private final double smoothing = 0.1;
+
+    private volatile int level;
+    private volatile int lossPercent;
+    private volatile long lossReportTime;
+
+    private double bytesPerFrame;
+    private double sendNanos;
+    private double frameNanos;
+    private long lastFrameTime;
+    private int framesAtLevel;
+    private int cleanFrames;
+
+    /**
+     * create a new governor
+     *
+     * @param maxBytesPerSecond the video budget of the link
+     * @param maxSendMillis a frame that takes longer than this to send means
+     * the link is congested
+     */
+    public VideoQualityGovernor(double maxBytesPerSecond, int maxSendMillis) {
+        this.maxBytesPerSecond = maxBytesPerSecond;
+        this.maxSendNanos = maxSendMillis * 1000000L;
+    }
+
+    /**
+     * report a sent frame. called from the camera thread
+     *
+     * @param encodedBytes size of the encoded frame
+     * @param sendTime time used to send the frame, in ns
+     */
+    public void frameSent(int encodedBytes, long sendTime) {
+        long now = System.nanoTime();
+        if (lastFrameTime == 0) {
+            bytesPerFrame = encodedBytes;
+            sendNanos = sendTime;
+            lastFrameTime = now;
+            return;
+        }
+        bytesPerFrame += smoothing * (encodedBytes - bytesPerFrame);
+        sendNanos += smoothing * (sendTime - sendNanos);
+        if (frameNanos == 0) {
+            // the first interval seeds the average, starting from 0 would
+            // overestimate the byte rate for many frames
+            frameNanos = now - lastFrameTime;
+        } else {
+            frameNanos += smoothing * ((now - lastFrameTime) - frameNanos);
+        }
+        lastFrameTime = now;
+        framesAtLevel++;
+
+        if (this.isCongested(now)) {
+            cleanFrames = 0;
+            // give a new level some frames before judging it
+            if (framesAtLevel >= framesBeforeDegrade && level < QUALITY.length - 1) {
+                this.setLevel(level + 1);
+            }
+        } else if (++cleanFrames >= framesBeforeUpgrade && level > 0) {
+            this.setLevel(level - 1);
+        }
+    }
+
+    /**
+     * report packet loss measured by the GUI
+     *
+     * @param percent lost fragments in percent
+     */
+    public void lossReported(int percent) {
+        this.lossPercent = percent;
+        this.lossReportTime = System.nanoTime();
+    }
+
+    /**
+     * check the smoothed measurements against the limits
+     */
+    private boolean isCongested(long now) {
+        if (lossReportTime != 0 && now - lossReportTime < lossReportTimeout && lossPercent > maxLossPercent) {
+            return true;
+        }
+        if (sendNanos > maxSendNanos) {
+            return true;
+        }
+        return frameNanos > 0 && bytesPerFrame * 1e9 / frameNanos > maxBytesPerSecond;
+    }
+
+    /**
+     * change level and restart the measurements. frame size and interval
+     * depend on the level, so the averages are seeded again by the next
+     * frames
+     */
+    private void setLevel(int level) {
+        this.level = level;
+        framesAtLevel = 0;
+        cleanFrames = 0;
+        lastFrameTime = 0;
+        frameNanos = 0;
+        EventLog.log(EventLog.INFO, "Video level {} quality {} interval {}", level, QUALITY[level], INTERVAL[level]);
+    }
+
+    /**
+     * JPEG quality to encode with
+     *
+     * @return quality in percent
+     */
+    public int getQuality() {
+        return QUALITY[level];
+    }
+
+    /**
+     * scale of the frame compared to the camera resolution
+     *
+     * @return scale factor, 1.0 is full resolution
+     */
+    public double getScale() {
+        return SCALE[level];
+    }
+
+    /**
+     * time to wait between frames
+     *
+     * @return interval in ms
+     */
+    public int getFrameInterval() {
+        return INTERVAL[level];
+    }
+
+    /**
+     * current level, 0 is best quality
+     *
+     * @return the level
+     */
+    public int getLevel() {
+        return level;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import org.opencv.core.Mat;
+
+/**
+ * VisionFrame class. one camera frame on its way through the tracker
+ * pipeline, with the images each stage produces. the frames are created once
+ * and reused, a stage owns a frame from the time it takes it from its queue
+ * until it hands it to the next queue
+ */
+public class VisionFrame {
+
+    private final Mat image;
+    private final Mat hsv;
+    private final Mat mask;
+    private final Mat distanceMask;
+    private Mat source;
+    private long sequence;
+    private long captureTime;
+    // where the image is in the camera frame
+    private int offsetX;
+    private int offsetY;
+    private int scale;
+    private int frameWidth;
+    private int frameHeight;
+
+    public VisionFrame() {
+        this.image = new Mat();
+        this.hsv = new Mat();
+        this.mask = new Mat();
+        this.distanceMask = new Mat();
+    }
+
+    /**
+     * start a new frame
+     *
+     * @param sequence sequence number from the FrameExchange
+     * @param captureTime capture time from System.nanoTime()
+     */
+    public void reset(long sequence, long captureTime) {
+        this.sequence = sequence;
+        this.captureTime = captureTime;
+    }
+
+    /**
+     * set the part of the camera frame the image was taken from. a point
+     * (x, y) in the image is (offsetX + x * scale, offsetY + y * scale) in
+     * the camera frame
+     *
+     * @param offsetX left edge in the camera frame
+     * @param offsetY top edge in the camera frame
+     * @param scale 1 for full resolution, 2 for half resolution
+     * @param frameWidth width of the camera frame
+     * @param frameHeight height of the camera frame
+     */
+    public void setRegion(int offsetX, int offsetY, int scale, int frameWidth, int frameHeight) {
+        this.offsetX = offsetX;
+        this.offsetY = offsetY;
+        this.scale = scale;
+        this.frameWidth = frameWidth;
+        this.frameHeight = frameHeight;
+    }
+
+    /**
+     * the camera frame from the FrameExchange, read only. only valid in the
+     * preprocessing stage
+     *
+     * @return the frame
+     */
+    public Mat getSource() {
+        return source;
+    }
+
+    public void setSource(Mat source) {
+        this.source = source;
+    }
+
+    /**
+     * camera image with brightness, contrast and blur applied
+     *
+     * @return the image
+     */
+    public Mat getImage() {
+        return image;
+    }
+
+    /**
+     * the image in HSV
+     *
+     * @return the HSV image
+     */
+    public Mat getHsv() {
+        return hsv;
+    }
+
+    /**
+     * pixels in the colour range of the target
+     *
+     * @return the mask
+     */
+    public Mat getMask() {
+        return mask;
+    }
+
+    /**
+     * pixels close to full saturation and value
+     *
+     * @return the mask
+     */
+    public Mat getDistanceMask() {
+        return distanceMask;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    public int getOffsetX() {
+        return offsetX;
+    }
+
+    public int getOffsetY() {
+        return offsetY;
+    }
+
+    public int getScale() {
+        return scale;
+    }
+
+    public int getFrameWidth() {
+        return frameWidth;
+    }
+
+    public int getFrameHeight() {
+        return frameHeight;
+    }
+
+    /**
+     * native memory held by the frame
+     *
+     * @return bytes
+     */
+    public long getNativeBytes() {
+        return image.total() * image.elemSize() + hsv.total() * hsv.elemSize()
+                + mask.total() * mask.elemSize() + distanceMask.total() * distanceMask.elemSize();
+    }
+}
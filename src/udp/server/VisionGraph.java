@@ -0,0 +1,170 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * VisionGraph class. the stages of the tracker in the order they run.
+ *
+ * resolve walks the stages backwards from the products the tracker needs
+ * and marks a stage live if it is enabled and a live stage after it (or the
+ * tracker) reads one of its products, or if it is kept. stages that are not
+ * live are skipped, so the tracker only pays for work that ends up in the
+ * target angle.
+ *
+ * configure before the pipeline threads start, the stage list is not
+ * changed after that
+ */
+public class VisionGraph {
+
+    // products of the stages
+    public static final int IMAGE = 1;
+    public static final int HSV = 1 << 1;
+    public static final int MASK = 1 << 2;
+    public static final int DISTANCE_MASK = 1 << 3;
+    public static final int CIRCLES = 1 << 4;
+    public static final int CONTOURS = 1 << 5;
+    public static final int SAMPLE = 1 << 6;
+    public static final int TARGET = 1 << 7;
+    public static final int OVERLAY = 1 << 8;
+
+    private final List<VisionStage> stages;
+    private int missing;
+
+    public VisionGraph() {
+        this.stages = new ArrayList<>();
+    }
+
+    /**
+     * add a stage after the stages already added
+     *
+     * @return the stage
+     */
+    public VisionStage add(String name, int thread, int inputs, int outputs, VisionStage.Step step) {
+        VisionStage stage = new VisionStage(name, thread, inputs, outputs, step);
+        stages.add(stage);
+        return stage;
+    }
+
+    /**
+     * disable and keep stages by name
+     *
+     * @param disabled comma separated names of stages that never run
+     * @param kept comma separated names of stages that run even if nothing
+     * uses their products
+     */
+    public void configure(String disabled, String kept) {
+        for (VisionStage stage : stages) {
+            stage.setEnabled(!contains(disabled, stage.getName()));
+            stage.setKept(contains(kept, stage.getName()));
+        }
+    }
+
+    private static boolean contains(String list, String name) {
+        if (list == null) {
+            return false;
+        }
+        for (String item : list.split(",")) {
+            if (item.trim().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * decide which stages run
+     *
+     * @param required products the tracker uses after the last stage
+     */
+    public void resolve(int required) {
+        int needed = required;
+        for (int i = stages.size() - 1; i >= 0; i--) {
+            VisionStage stage = stages.get(i);
+            boolean live = stage.isEnabled() && ((stage.getOutputs() & needed) != 0 || stage.isKept());
+            stage.setLive(live);
+            if (live) {
+                needed |= stage.getInputs();
+            }
+        }
+
+        // products needed but not made by any live stage
+        int made = 0;
+        for (VisionStage stage : stages) {
+            if (stage.isLive()) {
+                made |= stage.getOutputs();
+            }
+        }
+        missing = needed & ~made;
+    }
+
+    /**
+     * run the live stages of one pipeline thread on a frame
+     *
+     * @param thread ObjectTracker.PREPROCESS, SEGMENT or ANALYZE
+     * @param vf the frame
+     */
+    public void run(int thread, VisionFrame vf) {
+        for (int i = 0; i < stages.size(); i++) {
+            VisionStage stage = stages.get(i);
+            if (stage.getThread() == thread && stage.isLive()) {
+                stage.run(vf);
+            }
+        }
+    }
+
+    /**
+     * whether a stage runs
+     *
+     * @param name name of the stage
+     * @return true if the stage exists and is live
+     */
+    public boolean isLive(String name) {
+        for (VisionStage stage : stages) {
+            if (stage.getName().equals(name)) {
+                return stage.isLive();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * products that are needed but no live stage makes, 0 if the graph is
+     * complete
+     *
+     * @return the products
+     */
+    public int getMissing() {
+        return missing;
+    }
+
+    public List<VisionStage> getStages() {
+        return stages;
+    }
+
+    /**
+     * the stages that run and the stages that are skipped
+     *
+     * @return a line for the log
+     */
+    public String describe() {
+        StringBuilder live = new StringBuilder();
+        StringBuilder skipped = new StringBuilder();
+        for (VisionStage stage : stages) {
+            StringBuilder sb = stage.isLive() ? live : skipped;
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(stage.getName());
+            if (!stage.isEnabled()) {
+                sb.append(" (disabled)");
+            }
+        }
+        return "running: " + live + "; skipped: " + skipped;
+    }
+}
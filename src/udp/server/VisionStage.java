@@ -0,0 +1,121 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package udp.server;
+
+/**
+ * VisionStage class. one step of the tracker, e.g. blur or findContours,
+ * with the products it reads and writes (VisionGraph.IMAGE, MASK, ...) and
+ * the time it takes.
+ *
+ * a stage can be disabled, and VisionGraph only runs enabled stages whose
+ * products are used by a later stage. a kept stage runs even if nothing uses
+ * what it produces
+ */
+public class VisionStage {
+
+    /**
+     * the work of a stage
+     */
+    public interface Step {
+
+        void process(VisionFrame vf);
+    }
+
+    private final String name;
+    private final int thread;
+    private final int inputs;
+    private final int outputs;
+    private final Step step;
+    private final RollingLatencyHistogram time; // last minute
+    private boolean enabled;
+    private boolean kept;
+    private boolean live;
+
+    /**
+     * create a stage, enabled
+     *
+     * @param name name used in the configuration and the log
+     * @param thread pipeline thread the stage runs on, ObjectTracker.PREPROCESS, SEGMENT or ANALYZE
+     * @param inputs products the stage reads
+     * @param outputs products the stage writes
+     * @param step the work
+     */
+    public VisionStage(String name, int thread, int inputs, int outputs, Step step) {
+        this.name = name;
+        this.thread = thread;
+        this.inputs = inputs;
+        this.outputs = outputs;
+        this.step = step;
+        this.time = new RollingLatencyHistogram(6, 10000000000L);
+        this.enabled = true;
+    }
+
+    /**
+     * run the stage on a frame and record the time
+     *
+     * @param vf the frame
+     */
+    public void run(VisionFrame vf) {
+        long start = System.nanoTime();
+        step.process(vf);
+        time.recordSince(start);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThread() {
+        return thread;
+    }
+
+    public int getInputs() {
+        return inputs;
+    }
+
+    public int getOutputs() {
+        return outputs;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isKept() {
+        return kept;
+    }
+
+    public void setKept(boolean kept) {
+        this.kept = kept;
+    }
+
+    /**
+     * whether the stage runs, set by VisionGraph.resolve
+     *
+     * @return true if the stage runs
+     */
+    public boolean isLive() {
+        return live;
+    }
+
+    void setLive(boolean live) {
+        this.live = live;
+    }
+
+    /**
+     * time the stage takes per frame, over the last minute. the returned
+     * histogram is reused
+     *
+     * @return the histogram
+     */
+    public LatencyHistogram getTime() {
+        return time.getSnapshot();
+    }
+}